@@ -0,0 +1,161 @@
+package com.chikli.hudson.plugin.naginator;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Result;
+import hudson.model.RootAction;
+import hudson.model.View;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Retries many builds at once, e.g. after an outage.
+ *
+ * <p>
+ * <tt>POST /naginator/retry</tt> with either <tt>view</tt> (a view name),
+ * <tt>folder</tt> (the full name of a folder or job) or <tt>builds</tt>
+ * (a comma or newline separated list of <tt>job/full/name#number</tt>)
+ * retries the failed last builds of the view or folder, or the listed builds.
+ * The optional <tt>rate</tt> parameter sets how many builds are released to
+ * the queue per minute. The response is a JSON object whose <tt>url</tt>
+ * points to a {@link BulkRetryJob} to poll through its <tt>api/json</tt>.
+ */
+@Extension
+public class BulkRetryAction implements RootAction {
+
+    /**
+     * Default number of builds released per minute.
+     */
+    static final int DEFAULT_RATE = Integer.getInteger(BulkRetryAction.class.getName() + ".rate", 60);
+
+    /**
+     * Number of past batches kept for polling.
+     */
+    static final int MAX_JOBS = 20;
+
+    private final Map<Integer, BulkRetryJob> jobs = new LinkedHashMap<Integer, BulkRetryJob>();
+
+    private int nextId = 1;
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return "naginator";
+    }
+
+    /**
+     * Exposes the {@link RetryJournal} under <tt>/naginator/journal/</tt>.
+     */
+    public RetryJournal getJournal() {
+        return RetryJournal.get();
+    }
+
+    public synchronized BulkRetryJob getJob(int id) {
+        return jobs.get(id);
+    }
+
+    @RequirePOST
+    public void doRetry(StaplerResponse rsp,
+                        @QueryParameter String view,
+                        @QueryParameter String folder,
+                        @QueryParameter String builds,
+                        @QueryParameter int rate) throws IOException {
+        Jenkins jenkins = Jenkins.getInstance();
+        jenkins.checkPermission(Item.BUILD);
+
+        BulkRetryJob job;
+        synchronized (this) {
+            job = new BulkRetryJob(nextId++, rate > 0 ? rate : DEFAULT_RATE);
+        }
+
+        if (view != null && view.length() > 0) {
+            View v = jenkins.getView(view);
+            if (v == null) {
+                rsp.sendError(StaplerResponse.SC_NOT_FOUND, "No such view: " + view);
+                return;
+            }
+            addFailedLastBuilds(job, v.getItems());
+        } else if (folder != null && folder.length() > 0) {
+            Item item = jenkins.getItemByFullName(folder);
+            if (item == null) {
+                rsp.sendError(StaplerResponse.SC_NOT_FOUND, "No such item: " + folder);
+                return;
+            }
+            addFailedLastBuilds(job, item);
+        } else if (builds != null) {
+            for (String ref : builds.split("[,\\n]")) {
+                ref = ref.trim();
+                int hash = ref.lastIndexOf('#');
+                if (hash < 0) continue;
+                AbstractProject<?, ?> project = jenkins.getItemByFullName(ref.substring(0, hash), AbstractProject.class);
+                AbstractBuild<?, ?> build = null;
+                if (project != null && !NaginatorActionFactory.isOptOut(project)) {
+                    try {
+                        build = project.getBuildByNumber(Integer.parseInt(ref.substring(hash + 1).trim()));
+                    } catch (NumberFormatException e) {
+                        // ignore malformed references like unknown ones
+                    }
+                }
+                if (build != null) {
+                    job.add(build);
+                }
+            }
+        }
+
+        synchronized (this) {
+            jobs.put(job.getId(), job);
+            Iterator<Integer> it = jobs.keySet().iterator();
+            while (jobs.size() > MAX_JOBS && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        job.start();
+
+        JSONObject json = new JSONObject();
+        json.put("id", job.getId());
+        json.put("total", job.getTotal());
+        json.put("url", getUrlName() + "/job/" + job.getId() + "/");
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(json.toString());
+    }
+
+    private static void addFailedLastBuilds(BulkRetryJob job, Collection<? extends Item> items) {
+        for (Item item : items) {
+            addFailedLastBuilds(job, item);
+        }
+    }
+
+    private static void addFailedLastBuilds(BulkRetryJob job, Item item) {
+        if (item instanceof AbstractProject) {
+            AbstractProject<?, ?> project = (AbstractProject<?, ?>) item;
+            AbstractBuild<?, ?> build = project.getLastBuild();
+            if (build != null && !build.isBuilding() && !NaginatorActionFactory.isOptOut(project)
+                    && build.getResult() != null && build.getResult().isWorseThan(Result.SUCCESS)) {
+                job.add(build);
+            }
+        } else if (item instanceof ItemGroup) {
+            addFailedLastBuilds(job, ((ItemGroup<?>) item).getItems());
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.chikli.hudson.plugin.naginator;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Api;
+import hudson.model.Queue;
+import hudson.security.ACL;
+import hudson.triggers.SafeTimerTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Retries a batch of builds, releasing them to the queue at a limited rate.
+ *
+ * <p>
+ * Builds are referred to by project name and number, so that they are not kept
+ * in memory while waiting. Once a second, the builds due by then are loaded,
+ * then scheduled together while holding the queue lock, then journaled.
+ *
+ * @see BulkRetryAction
+ */
+@ExportedBean
+public class BulkRetryJob extends SafeTimerTask {
+
+    private final int id;
+
+    private final List<String> projects = new ArrayList<String>();
+
+    private final List<Integer> numbers = new ArrayList<Integer>();
+
+    /**
+     * Builds released per minute.
+     */
+    private final int rate;
+
+    private final long started = System.currentTimeMillis();
+
+    private int released;
+
+    private int scheduled;
+
+    private ScheduledFuture<?> future;
+
+    BulkRetryJob(int id, int rate) {
+        this.id = id;
+        this.rate = rate;
+    }
+
+    /**
+     * Starts releasing the builds, once a second until all are.
+     */
+    synchronized void start() {
+        future = Timer.get().scheduleAtFixedRate(this, 0, 1, TimeUnit.SECONDS);
+    }
+
+    void add(AbstractBuild<?, ?> build) {
+        projects.add(build.getProject().getFullName());
+        numbers.add(build.getNumber());
+    }
+
+    @Exported
+    public int getId() {
+        return id;
+    }
+
+    @Exported
+    public int getRate() {
+        return rate;
+    }
+
+    @Exported
+    public synchronized int getTotal() {
+        return projects.size();
+    }
+
+    /**
+     * Number of builds handed to the queue so far, successfully or not.
+     */
+    @Exported
+    public synchronized int getReleased() {
+        return released;
+    }
+
+    /**
+     * Number of retries actually scheduled, as the queue may refuse some.
+     */
+    @Exported
+    public synchronized int getScheduled() {
+        return scheduled;
+    }
+
+    @Exported
+    public synchronized boolean isDone() {
+        return released >= projects.size();
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    protected void doRun() {
+        int to;
+        List<String> names;
+        List<Integer> nums;
+        synchronized (this) {
+            if (isDone()) {
+                future.cancel(false);
+                return;
+            }
+            // runs are never concurrent, nobody else moves released meanwhile
+            to = (int) Math.min(countDue(System.currentTimeMillis() - started, rate), projects.size());
+            names = new ArrayList<String>(projects.subList(released, to));
+            nums = new ArrayList<Integer>(numbers.subList(released, to));
+        }
+
+        // permissions were checked once when the batch was submitted
+        SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+        try {
+            // loading builds may hit the disk, keep it out of the queue lock
+            List<AbstractBuild<?, ?>> builds = new ArrayList<AbstractBuild<?, ?>>();
+            for (int i = 0; i < names.size(); i++) {
+                AbstractBuild<?, ?> build = resolve(names.get(i), nums.get(i));
+                if (build != null) {
+                    builds.add(build);
+                }
+            }
+
+            List<AbstractBuild<?, ?>> retried = new ArrayList<AbstractBuild<?, ?>>();
+            Queue queue = Jenkins.getInstance().getQueue();
+            synchronized (queue) {
+                for (AbstractBuild<?, ?> build : builds) {
+                    if (NaginatorRetryAction.scheduleBuild(build, 0, new NaginatorAction())) {
+                        retried.add(build);
+                    }
+                }
+            }
+
+            synchronized (this) {
+                scheduled += retried.size();
+            }
+            for (AbstractBuild<?, ?> build : retried) {
+                RetryJournal.get().record(build, RetryJournal.Event.MANUAL, RetryJournal.getRetryIndex(build) + 1, 0, null);
+            }
+        } finally {
+            synchronized (this) {
+                released = to;
+            }
+            SecurityContextHolder.setContext(old);
+        }
+    }
+
+    /**
+     * Returns how many builds should have been released after some time,
+     * the first one being released right away.
+     *
+     * @param elapsed milliseconds since the job started.
+     * @param rate builds released per minute.
+     */
+    static long countDue(long elapsed, int rate) {
+        return elapsed * rate / 60000 + 1;
+    }
+
+    private static AbstractBuild<?, ?> resolve(String projectName, int number) {
+        AbstractProject<?, ?> project = Jenkins.getInstance().getItemByFullName(projectName, AbstractProject.class);
+        AbstractBuild<?, ?> build = project != null ? project.getBuildByNumber(number) : null;
+        if (build == null) {
+            LOGGER.log(Level.FINE, "{0} #{1} is gone, not retrying it", new Object[] {projectName, number});
+        }
+        return build;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(BulkRetryJob.class.getName());
+}
@@ -0,0 +1,320 @@
+package com.chikli.hudson.plugin.naginator;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks whether a dependency of the builds is up, on behalf of all the jobs
+ * whose retries wait for it.
+ *
+ * <p>
+ * Probes are <tt>tcp://host:port</tt>, which must accept a connection, or
+ * <tt>http://</tt> and <tt>https://</tt> URLs, which must answer without an
+ * error status. A single {@link Poller} has every probe that retries currently
+ * wait for checked, backing off while the dependency stays down. Once it is
+ * up, waiting retries are let through in waves of limited size.
+ *
+ * <p>
+ * Checks run in parallel on threads of their own, as each may take up to
+ * twice {@link #TIMEOUT}: a dependency which does not answer holds neither
+ * the others nor the timer shared by Jenkins.
+ *
+ * @see ProbeDelay
+ */
+public final class DependencyProbe {
+
+    static final int TIMEOUT = 5000;
+
+    /**
+     * Interval between checks right after the dependency went down, doubled at
+     * each failed check up to {@link #MAX_INTERVAL}.
+     */
+    static final long MIN_INTERVAL = 5000;
+
+    static final long MAX_INTERVAL = 5 * 60 * 1000;
+
+    /**
+     * Interval between checks while the dependency is up.
+     */
+    static final long UP_INTERVAL = 30 * 1000;
+
+    /**
+     * Time between two waves of released retries.
+     */
+    static final long WAVE_INTERVAL = 60 * 1000;
+
+    /**
+     * Probes nobody waited for since this long are dropped.
+     */
+    static final long IDLE_TIMEOUT = 10 * 60 * 1000;
+
+    /**
+     * Upper bound on the number of queue items remembered as released.
+     */
+    static final int MAX_RELEASED = 10000;
+
+    /**
+     * Upper bound on the number of probes checked at once.
+     */
+    static final int MAX_CHECKERS = 16;
+
+    private static final Map<String, DependencyProbe> PROBES = new HashMap<String, DependencyProbe>();
+
+    private static final ThreadPoolExecutor CHECKERS = new ThreadPoolExecutor(MAX_CHECKERS, MAX_CHECKERS,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new NamingThreadFactory(new DaemonThreadFactory(), "DependencyProbe.check"));
+
+    static {
+        CHECKERS.allowCoreThreadTimeOut(true);
+    }
+
+    private final String spec;
+
+    private boolean up;
+
+    private long interval = MIN_INTERVAL;
+
+    private long nextCheck;
+
+    /**
+     * Set while a check is pending, so that a slow one is not queued again.
+     */
+    private boolean checking;
+
+    private long lastWanted = System.currentTimeMillis();
+
+    private long waveStart;
+
+    private int waveCount;
+
+    /**
+     * Ids of the queue items let through, as the queue asks again for them.
+     */
+    private final LinkedHashSet<Long> released = new LinkedHashSet<Long>();
+
+    private DependencyProbe(String spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * Returns the probe shared by every job waiting for this dependency.
+     */
+    public static DependencyProbe get(String spec) {
+        synchronized (PROBES) {
+            DependencyProbe probe = PROBES.get(spec);
+            if (probe == null) {
+                probe = new DependencyProbe(spec);
+                PROBES.put(spec, probe);
+            }
+            return probe;
+        }
+    }
+
+    /**
+     * Returns the probe of this dependency if some retry waits for it, else null.
+     */
+    public static DependencyProbe find(String spec) {
+        synchronized (PROBES) {
+            return PROBES.get(spec);
+        }
+    }
+
+    public String getSpec() {
+        return spec;
+    }
+
+    public synchronized boolean isUp() {
+        return up;
+    }
+
+    /**
+     * Tells whether the queue item may run now, counting it in the current wave if so.
+     *
+     * @param waveSize maximum number of items let through per wave, 0 for no limit.
+     */
+    public synchronized boolean admit(long itemId, int waveSize) {
+        long now = System.currentTimeMillis();
+        lastWanted = now;
+        if (released.contains(itemId)) {
+            return true;
+        }
+        if (!up) {
+            return false;
+        }
+        if (now - waveStart >= WAVE_INTERVAL) {
+            waveStart = now;
+            waveCount = 0;
+        }
+        if (waveSize > 0 && waveCount >= waveSize) {
+            return false;
+        }
+        waveCount++;
+        released.add(itemId);
+        Iterator<Long> it = released.iterator();
+        while (released.size() > MAX_RELEASED && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        return true;
+    }
+
+    synchronized boolean isDue(long now) {
+        return now >= nextCheck;
+    }
+
+    /**
+     * Marks the probe as being checked if it is due and not already being checked.
+     */
+    private synchronized boolean startCheck(long now) {
+        if (checking || !isDue(now)) {
+            return false;
+        }
+        checking = true;
+        return true;
+    }
+
+    private synchronized boolean isIdle(long now) {
+        return now - lastWanted > IDLE_TIMEOUT;
+    }
+
+    void check() {
+        boolean passed;
+        try {
+            passed = probe(spec);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "failed to probe " + spec, e);
+            passed = false;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            checking = false;
+            if (passed) {
+                if (!up) {
+                    LOGGER.log(Level.INFO, "{0} is up, releasing the retries waiting for it", spec);
+                    waveStart = 0;
+                }
+                interval = MIN_INTERVAL;
+                nextCheck = now + UP_INTERVAL;
+            } else {
+                if (up) {
+                    LOGGER.log(Level.INFO, "{0} is down, holding back the retries waiting for it", spec);
+                    released.clear();
+                    interval = MIN_INTERVAL;
+                } else {
+                    interval = Math.min(interval * 2, MAX_INTERVAL);
+                }
+                nextCheck = now + interval;
+            }
+            up = passed;
+        }
+    }
+
+    /**
+     * @return null if the probe is well formed, else what is wrong with it.
+     */
+    static String validate(String spec) {
+        try {
+            URI uri = new URI(spec);
+            String scheme = uri.getScheme();
+            if ("tcp".equals(scheme)) {
+                return uri.getHost() != null && uri.getPort() > 0 ? null : "Expected tcp://host:port";
+            }
+            if ("http".equals(scheme) || "https".equals(scheme)) {
+                return uri.getHost() != null ? null : "Expected a host in the URL";
+            }
+            return "Expected a tcp://, http:// or https:// URL";
+        } catch (URISyntaxException e) {
+            return e.getMessage();
+        }
+    }
+
+    static boolean probe(String spec) {
+        try {
+            URI uri = new URI(spec);
+            if ("tcp".equals(uri.getScheme())) {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort()), TIMEOUT);
+                    return true;
+                } finally {
+                    socket.close();
+                }
+            }
+            HttpURLConnection connection = (HttpURLConnection) new URL(spec).openConnection();
+            try {
+                connection.setConnectTimeout(TIMEOUT);
+                connection.setReadTimeout(TIMEOUT);
+                return connection.getResponseCode() < 400;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, spec + " is down", e);
+            return false;
+        } catch (URISyntaxException e) {
+            LOGGER.log(Level.WARNING, "invalid probe " + spec, e);
+            return false;
+        } catch (ClassCastException e) {
+            LOGGER.log(Level.WARNING, "invalid probe " + spec, e);
+            return false;
+        }
+    }
+
+    /**
+     * Has the probes which are due checked, and drops those nobody waits for anymore.
+     */
+    @Extension
+    public static class Poller extends PeriodicWork {
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN_INTERVAL;
+        }
+
+        @Override
+        protected void doRun() {
+            long now = System.currentTimeMillis();
+            List<DependencyProbe> due = new ArrayList<DependencyProbe>();
+            synchronized (PROBES) {
+                Iterator<DependencyProbe> it = PROBES.values().iterator();
+                while (it.hasNext()) {
+                    DependencyProbe probe = it.next();
+                    if (probe.isIdle(now)) {
+                        it.remove();
+                    } else if (probe.startCheck(now)) {
+                        due.add(probe);
+                    }
+                }
+            }
+            for (final DependencyProbe probe : due) {
+                CHECKERS.execute(new Runnable() {
+                    public void run() {
+                        probe.check();
+                    }
+                });
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(DependencyProbe.class.getName());
+}
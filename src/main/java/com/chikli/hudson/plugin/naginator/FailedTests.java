@@ -0,0 +1,78 @@
+package com.chikli.hudson.plugin.naginator;
+
+import hudson.model.AbstractBuild;
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.test.AbstractTestResultAction;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact list of the tests that failed in a build, in the form accepted by
+ * Maven Surefire's <tt>-Dtest</tt> option:
+ * <tt>com.example.FooTest#testA+testB,com.example.BarTest#testC</tt>.
+ */
+final class FailedTests {
+
+    /**
+     * Beyond this many characters, the retry runs all tests again: the list goes
+     * in an environment variable of every process the retry launches, and those
+     * fail to start when it is too large for the platform.
+     */
+    static final int MAX_LENGTH = 4 * 1024;
+
+    private final Map<String, Set<String>> byClass = new LinkedHashMap<String, Set<String>>();
+
+    void add(String className, String testName) {
+        Set<String> names = byClass.get(className);
+        if (names == null) {
+            names = new LinkedHashSet<String>();
+            byClass.put(className, names);
+        }
+        names.add(testName);
+    }
+
+    boolean isEmpty() {
+        return byClass.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Set<String>> e : byClass.entrySet()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(e.getKey());
+            String sep = "#";
+            for (String name : e.getValue()) {
+                sb.append(sep).append(name);
+                sep = "+";
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the failed tests of the build, or null when they are unknown
+     *         or too many to be worth listing.
+     */
+    static String of(AbstractBuild<?, ?> build) {
+        AbstractTestResultAction<?> tests = build.getAction(AbstractTestResultAction.class);
+        if (tests == null) {
+            return null;
+        }
+        List<CaseResult> failed = tests.getFailedTests();
+        if (failed.isEmpty() || failed.size() != tests.getFailCount()) {
+            return null;
+        }
+
+        FailedTests result = new FailedTests();
+        for (CaseResult c : failed) {
+            result.add(c.getClassName(), c.getName());
+        }
+        String s = result.toString();
+        return s.length() <= MAX_LENGTH ? s : null;
+    }
+}
@@ -0,0 +1,49 @@
+package com.chikli.hudson.plugin.naginator;
+
+import hudson.Util;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Computes a normalized fingerprint of a build failure, so that identical
+ * failures can be recognized across retries even though timestamps, build
+ * numbers and similar details differ from one build to the other.
+ */
+public final class FailureFingerprint {
+
+    /**
+     * Number of trailing log lines fingerprinted when no regular expression matched.
+     */
+    public static final int TAIL_LINES = 30;
+
+    private static final Pattern HEX = Pattern.compile("\\b(?=[0-9a-fA-F]*[0-9])[0-9a-fA-F]{8,}\\b");
+
+    private static final Pattern NUMBER = Pattern.compile("[0-9]+");
+
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private FailureFingerprint() {
+    }
+
+    /**
+     * Strips variable parts (hashes, numbers, timestamps, spacing) from the text.
+     */
+    static String normalize(String text) {
+        String s = HEX.matcher(text).replaceAll("#");
+        s = NUMBER.matcher(s).replaceAll("#");
+        return SPACES.matcher(s).replaceAll(" ").trim();
+    }
+
+    public static String of(String text) {
+        return Util.getDigestOf(normalize(text));
+    }
+
+    public static String of(List<String> lines) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(normalize(line)).append('\n');
+        }
+        return Util.getDigestOf(sb.toString());
+    }
+}
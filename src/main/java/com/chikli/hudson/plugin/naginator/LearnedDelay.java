@@ -0,0 +1,308 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import jenkins.util.Timer;
+
+/**
+ * Picks the shortest delay that has been seen to let retries pass, learning
+ * from the outcome of previous retries of the same job and failure signature.
+ *
+ * <p>
+ * Candidate delays form a doubling ladder from {@link #getMinDelay()} up to
+ * {@link #getMaxDelay()}. Outcomes are recorded against the step of the time
+ * retries actually waited after the failure, and decay over time, so the model
+ * follows changes in how long failures take to clear.
+ * Only a bounded number of job/signature pairs is remembered.
+ */
+public class LearnedDelay extends ScheduleDelay {
+
+    /**
+     * Upper bound on the number of ladder steps.
+     */
+    static final int MAX_STEPS = 16;
+
+    private int minDelay;
+
+    private int maxDelay;
+
+    private int successRate;
+
+    @DataBoundConstructor
+    public LearnedDelay(int minDelay, int maxDelay, int successRate) {
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.successRate = successRate;
+    }
+
+    public int getMinDelay() {
+        return minDelay;
+    }
+
+    public int getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Required chance of success, in percent.
+     */
+    public int getSuccessRate() {
+        return successRate;
+    }
+
+    @Override
+    public int computeScheduleDelay(AbstractBuild failedBuild) {
+        return computeScheduleDelay(failedBuild, NaginatorListener.getFailureSignature(failedBuild));
+    }
+
+    @Override
+    public int computeScheduleDelay(AbstractBuild failedBuild, String failureSignature) {
+        int[] ladder = getLadder();
+        String key = getKey(failedBuild, failureSignature);
+        int step = getModel().chooseStep(key, ladder, successRate / 100.0);
+
+        // Each further retry in the same chain waits one step longer than the last.
+        Run r = failedBuild;
+        while (r != null && r.getAction(NaginatorAction.class) != null) {
+            r = r.getPreviousBuild();
+            step++;
+        }
+        return ladder[min(step, ladder.length - 1)];
+    }
+
+    @Override
+    public boolean usesFailureSignature() {
+        return true;
+    }
+
+    @Override
+    public void onRetryCompleted(AbstractBuild retryBuild, NaginatorAction action, boolean passed) {
+        int[] ladder = getLadder();
+        String key = getKey(retryBuild, action.getFailureSignature());
+        // Learn from the actual wait: queueing and busy nodes may add a lot to the delay asked for.
+        Integer waited = action.getWaited(retryBuild);
+        int delay = waited != null ? waited : action.getDelay();
+        getModel().record(key, ladder, stepFor(ladder, delay), passed);
+        saveModel();
+    }
+
+    /**
+     * The model shared by all jobs; overridden to replay retries offline.
+     */
+    Model getModel() {
+        return getDescriptor().getModel();
+    }
+
+    void saveModel() {
+        getDescriptor().scheduleSave();
+    }
+
+    int[] getLadder() {
+        int lo = max(minDelay, 0);
+        int hi = max(maxDelay, lo);
+        List<Integer> steps = new ArrayList<Integer>();
+        for (int d = lo; d < hi && steps.size() < MAX_STEPS - 1; d = max(d * 2, d + 1)) {
+            steps.add(d);
+        }
+        steps.add(hi);
+        int[] ladder = new int[steps.size()];
+        for (int i = 0; i < ladder.length; i++) {
+            ladder[i] = steps.get(i);
+        }
+        return ladder;
+    }
+
+    /**
+     * Returns the highest step whose delay does not exceed the given one.
+     */
+    static int stepFor(int[] ladder, int delay) {
+        int step = 0;
+        while (step + 1 < ladder.length && ladder[step + 1] <= delay) {
+            step++;
+        }
+        return step;
+    }
+
+    private static String getKey(AbstractBuild build, String signature) {
+        return build.getProject().getFullName() + '#' + signature;
+    }
+
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return (DescriptorImpl) super.getDescriptor();
+    }
+
+    /**
+     * Decayed counts of passed and failed retries for each ladder step.
+     *
+     * <p>
+     * A retry that passed after some delay counts as a pass for every longer
+     * delay, and one that failed counts as a failure for every shorter delay.
+     */
+    static class Stats {
+        /**
+         * Weight kept by older observations whenever a new one is recorded.
+         */
+        static final double DECAY = 0.95;
+
+        /**
+         * Observations needed before a step's estimate is trusted.
+         */
+        static final double MIN_SAMPLES = 3;
+
+        private int[] ladder;
+        private double[] passed;
+        private double[] failed;
+
+        Stats(int[] ladder) {
+            this.ladder = ladder.clone();
+            this.passed = new double[ladder.length];
+            this.failed = new double[ladder.length];
+        }
+
+        double getPassed(int step) {
+            return passed[step];
+        }
+
+        boolean isFor(int[] ladder) {
+            return Arrays.equals(this.ladder, ladder);
+        }
+
+        void record(int step, boolean pass) {
+            for (int i = 0; i < ladder.length; i++) {
+                passed[i] *= DECAY;
+                failed[i] *= DECAY;
+            }
+            if (pass) {
+                passed[step]++;
+            } else {
+                failed[step]++;
+            }
+        }
+
+        /**
+         * Returns the shortest step that is either still unexplored or whose
+         * estimated chance of success reaches the target.
+         */
+        int choose(double target) {
+            for (int i = 0; i < ladder.length; i++) {
+                double s = 0, f = 0;
+                for (int j = 0; j <= i; j++) {
+                    s += passed[j];
+                }
+                for (int j = i; j < ladder.length; j++) {
+                    f += failed[j];
+                }
+                if (s + f < MIN_SAMPLES) {
+                    return i;
+                }
+                if ((s + 1) / (s + f + 2) >= target) {
+                    return i;
+                }
+            }
+            return ladder.length - 1;
+        }
+    }
+
+    /**
+     * {@link Stats} of the most recently seen job/signature pairs.
+     */
+    static class Model {
+        /**
+         * Upper bound on the number of job/signature pairs remembered.
+         */
+        static final int MAX_ENTRIES = 1000;
+
+        /**
+         * Least recently used first.
+         */
+        private final LinkedHashMap<String, Stats> stats = new LinkedHashMap<String, Stats>();
+
+        synchronized Stats get(String key) {
+            return stats.get(key);
+        }
+
+        synchronized int chooseStep(String key, int[] ladder, double target) {
+            Stats s = stats.get(key);
+            if (s == null || !s.isFor(ladder)) {
+                return 0;
+            }
+            return s.choose(target);
+        }
+
+        synchronized void record(String key, int[] ladder, int step, boolean passed) {
+            Stats s = stats.remove(key);
+            if (s == null || !s.isFor(ladder)) {
+                s = new Stats(ladder);
+            }
+            s.record(step, passed);
+            stats.put(key, s);
+            Iterator<Map.Entry<String, Stats>> it = stats.entrySet().iterator();
+            while (stats.size() > MAX_ENTRIES && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends ScheduleDelayDescriptor {
+
+        /**
+         * Seconds the model may go unsaved, so that it is written once per batch
+         * of retries rather than once per retry.
+         */
+        static final int SAVE_INTERVAL = 60;
+
+        private final Model model = new Model();
+
+        private final transient AtomicBoolean saveScheduled = new AtomicBoolean();
+
+        public DescriptorImpl() {
+            load();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Learned";
+        }
+
+        Model getModel() {
+            return model;
+        }
+
+        /**
+         * Saves the model in the background within {@link #SAVE_INTERVAL} seconds,
+         * together with whatever else is recorded by then.
+         */
+        void scheduleSave() {
+            if (!saveScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            Timer.get().schedule(new Runnable() {
+                public void run() {
+                    saveScheduled.set(false);
+                    // keep the model still while it is written
+                    synchronized (model) {
+                        save();
+                    }
+                }
+            }, SAVE_INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+}
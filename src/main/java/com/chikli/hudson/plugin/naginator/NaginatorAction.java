@@ -1,12 +1,102 @@
 package com.chikli.hudson.plugin.naginator;
 
-import hudson.model.Action;
+import hudson.EnvVars;
+import hudson.model.AbstractBuild;
 import hudson.model.BuildBadgeAction;
+import hudson.model.EnvironmentContributingAction;
+import hudson.model.Run;
 
 /**
  * @author: <a hef="mailto:nicolas.deloof@gmail.com">Nicolas De Loof</a>
  */
-public class NaginatorAction implements BuildBadgeAction {
+public class NaginatorAction implements BuildBadgeAction, EnvironmentContributingAction {
+
+    /**
+     * Environment variable listing the tests which failed in the retried build.
+     */
+    public static final String FAILED_TESTS_VARIABLE = "NAGINATOR_FAILED_TESTS";
+
+    /**
+     * Quiet period this retry was scheduled with, in seconds, or null for
+     * manual retries and builds recorded by older versions.
+     */
+    private Integer delay;
+
+    /**
+     * When the retried build completed, in milliseconds, or null when unknown.
+     */
+    private Long failedAt;
+
+    /**
+     * Signature of the failure this build was retrying.
+     */
+    private String failureSignature;
+
+    /**
+     * Node the retry should avoid, or null to run anywhere.
+     */
+    private String failedNode;
+
+    /**
+     * Tests which failed in the retried build, see {@link FailedTests}.
+     */
+    private String failedTests;
+
+    public NaginatorAction() {
+    }
+
+    public NaginatorAction(AbstractBuild<?, ?> failedBuild, int delay, String failureSignature) {
+        this.failedAt = failedBuild.getStartTimeInMillis() + failedBuild.getDuration();
+        this.delay = delay;
+        this.failureSignature = failureSignature;
+    }
+
+    public Integer getDelay() {
+        return delay;
+    }
+
+    public Long getFailedAt() {
+        return failedAt;
+    }
+
+    /**
+     * Returns how long the given retry actually waited, from the completion of
+     * the retried build to its own start, queueing and node selection included.
+     *
+     * @return seconds, or null when the retried build's completion is unknown.
+     */
+    public Integer getWaited(Run<?, ?> retry) {
+        if (failedAt == null) {
+            return null;
+        }
+        return (int) Math.max(0, (retry.getStartTimeInMillis() - failedAt) / 1000);
+    }
+
+    public String getFailureSignature() {
+        return failureSignature;
+    }
+
+    public String getFailedNode() {
+        return failedNode;
+    }
+
+    public void setFailedNode(String failedNode) {
+        this.failedNode = failedNode;
+    }
+
+    public String getFailedTests() {
+        return failedTests;
+    }
+
+    public void setFailedTests(String failedTests) {
+        this.failedTests = failedTests;
+    }
+
+    public void buildEnvVars(AbstractBuild<?, ?> build, EnvVars env) {
+        if (failedTests != null) {
+            env.put(FAILED_TESTS_VARIABLE, failedTests);
+        }
+    }
 
     public String getIconFileName() {
         return null;
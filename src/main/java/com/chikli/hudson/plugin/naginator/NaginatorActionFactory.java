@@ -1,10 +1,14 @@
 package com.chikli.hudson.plugin.naginator;
 
 import hudson.Extension;
+import hudson.XmlFile;
 import hudson.model.*;
+import hudson.model.listeners.SaveableListener;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * @author <a href="mailto:nicolas.deloof@gmail.com">Nicolas De Loof</a>
@@ -12,14 +16,45 @@ import java.util.Collections;
 @Extension
 public class NaginatorActionFactory extends TransientBuildActionFactory {
 
+    /**
+     * {@link NaginatorRetryAction} is stateless, so every build shares this one.
+     */
+    private static final Collection<NaginatorRetryAction> RETRY_ACTION = Collections.singleton(new NaginatorRetryAction());
+
+    /**
+     * Whether each job opted out, as build pages and the API ask for it on every
+     * request. Entries are dropped when the job is saved, as its properties may
+     * have changed, and when the job is garbage collected.
+     */
+    private static final Map<Job<?, ?>, Boolean> OPT_OUT = Collections.synchronizedMap(new WeakHashMap<Job<?, ?>, Boolean>());
+
     @SuppressWarnings("rawtypes")
     @Override
     public Collection<? extends Action> createFor(Run target) {
         Result result = target.getResult();
         if (result != null && result.isWorseThan(Result.SUCCESS)) {
-            NaginatorOptOutProperty p = (NaginatorOptOutProperty) target.getParent().getProperty(NaginatorOptOutProperty.class);
-            if (p == null || !p.isOptOut()) return Collections.singleton(new NaginatorRetryAction());
+            if (!isOptOut(target.getParent())) return RETRY_ACTION;
         }
         return Collections.emptyList();
     }
+
+    static boolean isOptOut(Job<?, ?> job) {
+        Boolean optOut = OPT_OUT.get(job);
+        if (optOut == null) {
+            NaginatorOptOutProperty p = (NaginatorOptOutProperty) job.getProperty(NaginatorOptOutProperty.class);
+            optOut = p != null && p.isOptOut();
+            OPT_OUT.put(job, optOut);
+        }
+        return optOut;
+    }
+
+    @Extension
+    public static class OptOutInvalidator extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Job) {
+                OPT_OUT.remove(o);
+            }
+        }
+    }
 }
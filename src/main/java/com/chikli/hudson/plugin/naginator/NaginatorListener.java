@@ -28,7 +28,7 @@ public class NaginatorListener extends RunListener<AbstractBuild<?,?>> {
 
     @Override
     public void onCompleted(AbstractBuild<?, ?> build, TaskListener listener) {
-        if ((build.getResult() == SUCCESS) || (build.getResult() == ABORTED)) {
+        if (build.getResult() == ABORTED) {
             return;
         }
 
@@ -39,78 +39,178 @@ public class NaginatorListener extends RunListener<AbstractBuild<?,?>> {
             return;
         }
 
+        // Let the delay policy learn from how this retry turned out.
+        NaginatorAction retried = build.getAction(NaginatorAction.class);
+        if (retried != null && retried.getDelay() != null) {
+            boolean passed = (build.getResult() == SUCCESS)
+                    || ((!naginator.isRerunIfUnstable()) && (build.getResult() == Result.UNSTABLE));
+            naginator.getDelay().onRetryCompleted(build, retried, passed);
+            // Matrix parents run as flyweight tasks on the master, they say nothing about it.
+            if (build.getBuiltOnStr() != null && !(build instanceof MatrixBuild)) {
+                NodeHealth.get().record(build.getBuiltOnStr(), passed);
+            }
+        }
+        if (retried != null) {
+            RetryJournal.get().record(build, RetryJournal.Event.COMPLETED, RetryJournal.getRetryIndex(build),
+                    retried.getDelay() != null ? retried.getDelay() : -1, null);
+        }
+
+        Decision decision = decide(build, naginator, listener);
+        if (decision == null) {
+            return;
+        }
+        if (decision.action != null && !scheduleBuild(build, decision.delay, decision.action)) {
+            return;
+        }
+        RetryJournal.get().record(build, decision.event, decision.retryIndex, decision.delay, decision.regexpMatched);
+    }
+
+    /**
+     * Whether a completed build is to be retried, and how.
+     */
+    static final class Decision {
+        /**
+         * {@link RetryJournal.Event#SCHEDULED} if the build is to be retried,
+         * else why it is not.
+         */
+        final RetryJournal.Event event;
+
+        final int retryIndex;
+
+        final Boolean regexpMatched;
+
+        /**
+         * Seconds to wait before the retry, -1 if there is none.
+         */
+        final int delay;
+
+        /**
+         * What to schedule the retry with, null if there is none.
+         */
+        final NaginatorAction action;
+
+        Decision(RetryJournal.Event event, int retryIndex, Boolean regexpMatched, int delay, NaginatorAction action) {
+            this.event = event;
+            this.retryIndex = retryIndex;
+            this.regexpMatched = regexpMatched;
+            this.delay = delay;
+            this.action = action;
+        }
+    }
+
+    /**
+     * Decides whether and how to retry a completed build, without scheduling anything.
+     *
+     * @return null if the build is not to be considered for a retry at all, as it
+     *         passed or it is only part of a matrix build.
+     */
+    Decision decide(AbstractBuild<?, ?> build, NaginatorPublisher naginator, TaskListener listener) {
+        if (build.getResult() == SUCCESS) {
+            return null;
+        }
+
         // If we're not set to rerun if unstable, and the build's unstable, return true.
         if ((!naginator.isRerunIfUnstable()) && (build.getResult() == Result.UNSTABLE)) {
-            return;
+            return null;
         }
 
         // Do nothing for a single Matrix run. (Run only when all Matrix finishes)
         if (build instanceof MatrixRun) {
-            return;
+            return null;
         }
 
+        int retryIndex = RetryJournal.getRetryIndex(build) + 1;
+
         // If we're supposed to check for a regular expression in the build output before
         // scheduling a new build, do so.
-        if (naginator.isCheckRegexp()) {
+        String matchedLine = null;
+        if (naginator.isCheckRegexp() && naginator.hasRegexpForRerun()) {
             LOGGER.log(Level.FINEST, "Got checkRegexp == true");
 
-            String regexpForRerun = naginator.getRegexpForRerun();
-            if ((regexpForRerun !=null) && (!regexpForRerun.equals(""))) {
-                LOGGER.log(Level.FINEST, "regexpForRerun - {0}", regexpForRerun);
+            Pattern pattern = naginator.getPatternForRerun();
+            if (pattern == null) {
+                // A missing rule or an invalid regular expression matches nothing
+                LOGGER.log(Level.FINEST, "no usable regexp to rerun on");
+                return new Decision(RetryJournal.Event.NOT_MATCHED, retryIndex, false, -1, null);
+            }
+            LOGGER.log(Level.FINEST, "regexpForRerun - {0}", pattern);
 
-                try {
-                    // If parseLog returns false, we didn't find the regular expression,
-                    // so return true.
-                    if (!parseLog(build.getLogFile(), regexpForRerun)) {
-                        LOGGER.log(Level.FINEST, "regexp not in logfile");
-                        return;
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace(listener
-                                      .error("error while parsing logs for naginator - forcing rebuild."));
+            try {
+                // If findMatchingLine returns null, we didn't find the regular expression,
+                // so return true.
+                matchedLine = findMatchingLine(build.getLogFile(), pattern);
+                if (matchedLine == null) {
+                    LOGGER.log(Level.FINEST, "regexp not in logfile");
+                    return new Decision(RetryJournal.Event.NOT_MATCHED, retryIndex, false, -1, null);
                 }
+            } catch (IOException e) {
+                e.printStackTrace(listener
+                                  .error("error while parsing logs for naginator - forcing rebuild."));
             }
         }
 
-        if (canSchedule(build, naginator)) {
-            int n = naginator.getDelay().computeScheduleDelay(build);
-            LOGGER.log(Level.FINE, "about to try to schedule a build #{0} in {1} seconds for {2}",
-                    new Object[]{build.getNumber(), n, build.getProject().getName()} );
-            
-            List<Combination> combsToRerun = new ArrayList<Combination>();
-
-            if (naginator.isRerunMatrixPart()) {
-                if (build instanceof MatrixBuild) {
-                    MatrixBuild mb = (MatrixBuild) build;
-                    List<MatrixRun> matrixRuns = mb.getRuns();
-
-                    for(MatrixRun r : matrixRuns) {
-                        if (r.getNumber() == build.getNumber()) {
-                            if ((r.getResult() == SUCCESS) || (r.getResult() == ABORTED)) {
-                                continue;
-                            }
-                            if ((!naginator.isRerunIfUnstable()) && (r.getResult() == Result.UNSTABLE)) {
-                                continue;
-                            }
-                            
-                            LOGGER.log(Level.FINE, "add combination to matrix rerun ({0})", r.getParent().getCombination().toString());
-                            combsToRerun.add(r.getParent().getCombination());    
+        Boolean regexpMatched = (matchedLine != null) ? Boolean.TRUE : null;
+
+        // Reading the log is only worth it when the signature is used
+        String signature = null;
+        if (naginator.getMaxIdenticalFailures() > 0 || naginator.getDelay().usesFailureSignature()) {
+            signature = (matchedLine != null) ? FailureFingerprint.of(matchedLine) : getFailureSignature(build);
+        }
+        if (isRepeatedFailure(build, naginator, signature)) {
+            LOGGER.log(Level.FINE, "same failure repeated {0} times for #{1} build, project {2}",
+                    new Object[]{naginator.getMaxIdenticalFailures(), build.getNumber(), build.getProject().getName()} );
+            return new Decision(RetryJournal.Event.REPEATED_FAILURE, retryIndex, regexpMatched, -1, null);
+        }
+
+        if (!canSchedule(build, naginator)) {
+            LOGGER.log(Level.FINE, "max number of schedules for #{0} build, project {1}",
+                    new Object[]{build.getNumber(), build.getProject().getName()} );
+            return new Decision(RetryJournal.Event.MAX_SCHEDULE, retryIndex, regexpMatched, -1, null);
+        }
+
+        int n = naginator.getDelay().computeScheduleDelay(build, signature);
+        LOGGER.log(Level.FINE, "about to try to schedule a build #{0} in {1} seconds for {2}",
+                new Object[]{build.getNumber(), n, build.getProject().getName()} );
+
+        List<Combination> combsToRerun = new ArrayList<Combination>();
+
+        if (naginator.isRerunMatrixPart()) {
+            if (build instanceof MatrixBuild) {
+                MatrixBuild mb = (MatrixBuild) build;
+                List<MatrixRun> matrixRuns = mb.getRuns();
+
+                for(MatrixRun r : matrixRuns) {
+                    if (r.getNumber() == build.getNumber()) {
+                        if ((r.getResult() == SUCCESS) || (r.getResult() == ABORTED)) {
+                            continue;
+                        }
+                        if ((!naginator.isRerunIfUnstable()) && (r.getResult() == Result.UNSTABLE)) {
+                            continue;
                         }
-                    }
 
+                        LOGGER.log(Level.FINE, "add combination to matrix rerun ({0})", r.getParent().getCombination().toString());
+                        combsToRerun.add(r.getParent().getCombination());
+                    }
                 }
-            }
 
-            if (!combsToRerun.isEmpty()) {
-                LOGGER.log(Level.FINE, "schedule matrix rebuild");
-                scheduleMatrixBuild(build, combsToRerun, n);
-            } else {
-                scheduleBuild(build, n);
             }
+        }
+
+        NaginatorAction action;
+        if (!combsToRerun.isEmpty()) {
+            LOGGER.log(Level.FINE, "schedule matrix rebuild");
+            action = createMatrixAction(build, combsToRerun, n, signature);
         } else {
-            LOGGER.log(Level.FINE, "max number of schedules for #{0} build, project {1}",
-                    new Object[]{build.getNumber(), build.getProject().getName()} );
+            action = new NaginatorAction(build, n, signature);
+            // Matrix parents run as flyweight tasks, nothing to avoid there.
+            if (naginator.isAvoidFailedNode() && !(build instanceof MatrixBuild)) {
+                action.setFailedNode(build.getBuiltOnStr());
+            }
+            if (naginator.isRerunFailedTests() && build.getResult() == Result.UNSTABLE) {
+                action.setFailedTests(FailedTests.of(build));
+            }
         }
+        return new Decision(RetryJournal.Event.SCHEDULED, retryIndex, regexpMatched, n, action);
     }
 
     public boolean canSchedule(Run build, NaginatorPublisher naginator) {
@@ -128,40 +228,87 @@ public class NaginatorListener extends RunListener<AbstractBuild<?,?>> {
         return n < max;
     }
 
-    public boolean scheduleMatrixBuild(AbstractBuild<?, ?> build, List<Combination> combinations, int n) {
-        NaginatorMatrixAction nma = new NaginatorMatrixAction();
+    /**
+     * Tells whether the failure identified by the signature already occurred
+     * {@link NaginatorPublisher#getMaxIdenticalFailures()} times in the current
+     * chain of retries, in which case retrying again is pointless.
+     */
+    public boolean isRepeatedFailure(Run build, NaginatorPublisher naginator, String signature) {
+        int max = naginator.getMaxIdenticalFailures();
+        if (max <= 0 || signature == null) return false;
+        int n = 1;
+
+        Run r = build;
+        NaginatorAction action;
+        while (n < max && r != null && (action = r.getAction(NaginatorAction.class)) != null) {
+            if (signature.equals(action.getFailureSignature())) n++;
+            r = r.getPreviousBuild();
+        }
+
+        return n >= max;
+    }
+
+    public boolean scheduleMatrixBuild(AbstractBuild<?, ?> build, List<Combination> combinations, int n, String signature) {
+        return NaginatorRetryAction.scheduleBuild(build, n, createMatrixAction(build, combinations, n, signature));
+    }
+
+    private static NaginatorMatrixAction createMatrixAction(AbstractBuild<?, ?> build, List<Combination> combinations, int n, String signature) {
+        NaginatorMatrixAction nma = new NaginatorMatrixAction(build, n, signature);
         for (Combination c : combinations) {
             nma.addCombinationToRerun(c);
         }
-        return NaginatorRetryAction.scheduleBuild(build, n, nma);
+        return nma;
     }
 
     /**
      * Wrapper method for mocking purposes.
      */
-    public boolean scheduleBuild(AbstractBuild<?, ?> build, int n) {
-        return NaginatorRetryAction.scheduleBuild(build, n);
+    public boolean scheduleBuild(AbstractBuild<?, ?> build, int n, NaginatorAction action) {
+        return NaginatorRetryAction.scheduleBuild(build, n, action);
+    }
+
+    /**
+     * Identifies the kind of failure of a build, so that retries of
+     * similar failures can be told apart from others.
+     *
+     * @return a {@link FailureFingerprint} of the line matching the regular
+     *         expression to rerun, or of the tail of the log.
+     */
+    static String getFailureSignature(AbstractBuild<?, ?> build) {
+        NaginatorPublisher naginator = build.getProject().getPublishersList().get(NaginatorPublisher.class);
+        try {
+            if (naginator != null && naginator.isCheckRegexp()) {
+                String matchedLine = findMatchingLine(build.getLogFile(), naginator.getPatternForRerun());
+                if (matchedLine != null) {
+                    return FailureFingerprint.of(matchedLine);
+                }
+            }
+            return FailureFingerprint.of(build.getLog(FailureFingerprint.TAIL_LINES));
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "failed to fingerprint " + build, e);
+            Result result = build.getResult();
+            return result != null ? result.toString() : null;
+        }
     }
 
-    private boolean parseLog(File logFile, String regexp) throws IOException {
+    private static String findMatchingLine(File logFile, Pattern pattern) throws IOException {
 
-        if (regexp == null) {
-            return false;
+        if (pattern == null) {
+            return null;
         }
 
         // Assume default encoding and text files
         String line;
-        Pattern pattern = Pattern.compile(regexp);
         BufferedReader reader = null;
         try {
           reader = new BufferedReader(new FileReader(logFile));
           while ((line = reader.readLine()) != null) {
               Matcher matcher = pattern.matcher(line);
               if (matcher.find()) {
-                  return true;
+                  return line;
               }
           }
-          return false;
+          return null;
         }
         finally {
           if(reader != null)
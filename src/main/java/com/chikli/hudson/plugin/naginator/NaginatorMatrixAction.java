@@ -1,6 +1,7 @@
 package com.chikli.hudson.plugin.naginator;
 
 import hudson.matrix.Combination;
+import hudson.model.AbstractBuild;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,6 +16,11 @@ public class NaginatorMatrixAction extends NaginatorAction {
     public NaginatorMatrixAction() {
         this.combsToRerun = new ArrayList<Combination>();
     }
+
+    public NaginatorMatrixAction(AbstractBuild<?, ?> failedBuild, int delay, String failureSignature) {
+        super(failedBuild, delay, failureSignature);
+        this.combsToRerun = new ArrayList<Combination>();
+    }
     
     public void addCombinationToRerun(Combination combination) {
         this.combsToRerun.add(combination);
@@ -2,6 +2,7 @@ package com.chikli.hudson.plugin.naginator;
 
 import hudson.Extension;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
@@ -9,12 +10,22 @@ import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Notifier;
 import hudson.tasks.Publisher;
+import hudson.util.ListBoxModel;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Reschedules a build if the current one fails.
@@ -31,6 +42,25 @@ public class NaginatorPublisher extends Notifier {
 
     private int maxSchedule;
 
+    private int maxIdenticalFailures;
+
+    private boolean avoidFailedNode;
+
+    private boolean rerunFailedTests;
+
+    /**
+     * Id of the global {@link RetryRule} used instead of {@link #regexpForRerun}, if any.
+     */
+    private String ruleId;
+
+    private transient volatile Pattern patternForRerun;
+
+    /**
+     * Set once a problem with the regular expression to rerun on was logged,
+     * so that it is not logged again for every build.
+     */
+    private transient volatile boolean patternProblemReported;
+
     // backward compatible constructor
     public NaginatorPublisher(String regexpForRerun,
                               boolean rerunIfUnstable,
@@ -65,6 +95,15 @@ public class NaginatorPublisher extends Notifier {
         return rerunIfUnstable;
     }
 
+    public boolean isRerunFailedTests() {
+        return rerunFailedTests;
+    }
+
+    @DataBoundSetter
+    public void setRerunFailedTests(boolean rerunFailedTests) {
+        this.rerunFailedTests = rerunFailedTests;
+    }
+
     public boolean isRerunMatrixPart() {
         return rerunMatrixPart;
     }
@@ -77,6 +116,56 @@ public class NaginatorPublisher extends Notifier {
         return regexpForRerun;
     }
 
+    public String getRuleId() {
+        return ruleId;
+    }
+
+    @DataBoundSetter
+    public void setRuleId(String ruleId) {
+        this.ruleId = Util.fixEmptyAndTrim(ruleId);
+    }
+
+    /**
+     * Tells whether there is a regular expression to rerun on, either of its own
+     * or through {@link #getRuleId()}, whether or not it can be used.
+     */
+    public boolean hasRegexpForRerun() {
+        return ruleId != null || Util.fixEmpty(regexpForRerun) != null;
+    }
+
+    /**
+     * Returns the compiled regular expression to rerun on: the one of the
+     * shared rule if {@link #getRuleId()} is set, else {@link #getRegexpForRerun()}.
+     *
+     * @return null if there is none, if the rule does not exist, or if the
+     *         regular expression is invalid.
+     */
+    public Pattern getPatternForRerun() {
+        if (ruleId != null) {
+            RetryRule rule = getDescriptor().getRule(ruleId);
+            if (rule == null) {
+                if (!patternProblemReported) {
+                    patternProblemReported = true;
+                    LOGGER.log(Level.WARNING, "no naginator rule with id {0}", ruleId);
+                }
+                return null;
+            }
+            patternProblemReported = false;
+            return rule.getPattern();
+        }
+
+        Pattern p = patternForRerun;
+        if (p == null && !patternProblemReported && Util.fixEmpty(regexpForRerun) != null) {
+            try {
+                patternForRerun = p = Pattern.compile(regexpForRerun);
+            } catch (PatternSyntaxException e) {
+                patternProblemReported = true;
+                LOGGER.log(Level.WARNING, "invalid regular expression to rerun on", e);
+            }
+        }
+        return p;
+    }
+
     public ScheduleDelay getDelay() {
         return delay;
     }
@@ -85,6 +174,24 @@ public class NaginatorPublisher extends Notifier {
         return maxSchedule;
     }
 
+    public int getMaxIdenticalFailures() {
+        return maxIdenticalFailures;
+    }
+
+    @DataBoundSetter
+    public void setMaxIdenticalFailures(int maxIdenticalFailures) {
+        this.maxIdenticalFailures = maxIdenticalFailures;
+    }
+
+    public boolean isAvoidFailedNode() {
+        return avoidFailedNode;
+    }
+
+    @DataBoundSetter
+    public void setAvoidFailedNode(boolean avoidFailedNode) {
+        this.avoidFailedNode = avoidFailedNode;
+    }
+
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
         // Nothing to do during the build, see NaginatorListener
@@ -117,8 +224,68 @@ public class NaginatorPublisher extends Notifier {
     @Extension
     public static final class DescriptorImpl extends BuildStepDescriptor<Publisher> {
 
+        /**
+         * Rules shared by all jobs, see {@link NaginatorPublisher#getRuleId()}.
+         */
+        private volatile List<RetryRule> rules = new ArrayList<RetryRule>();
+
         public DescriptorImpl() {
             super(NaginatorPublisher.class);
+            load();
+        }
+
+        public List<RetryRule> getRules() {
+            return Collections.unmodifiableList(rules);
+        }
+
+        public RetryRule getRule(String id) {
+            for (RetryRule rule : rules) {
+                if (id.equals(rule.getId())) {
+                    return rule;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+            Object src = json.get("rules");
+            List<RetryRule> newRules = src != null
+                    ? new ArrayList<RetryRule>(req.bindJSONToList(RetryRule.class, src))
+                    : new ArrayList<RetryRule>();
+            checkRules(newRules);
+            // replaced as a whole, so that jobs see either the old or the new rules
+            rules = newRules;
+            save();
+            return true;
+        }
+
+        /**
+         * Rejects rules without an id or a regular expression, and rules sharing an id,
+         * as jobs could not tell which one they refer to.
+         */
+        static void checkRules(List<RetryRule> rules) throws FormException {
+            Set<String> ids = new HashSet<String>();
+            for (RetryRule rule : rules) {
+                if (rule.getId() == null) {
+                    throw new FormException("Every rule needs an id", "rules");
+                }
+                if (Util.fixEmpty(rule.getRegexp()) == null) {
+                    throw new FormException("Rule " + rule.getId() + " has no regular expression", "rules");
+                }
+                if (!ids.add(rule.getId())) {
+                    throw new FormException("Duplicate rule id " + rule.getId(), "rules");
+                }
+            }
+        }
+
+        public ListBoxModel doFillRuleIdItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("(none)", "");
+            for (RetryRule rule : rules) {
+                items.add(rule.getId());
+            }
+            return items;
         }
 
         /**
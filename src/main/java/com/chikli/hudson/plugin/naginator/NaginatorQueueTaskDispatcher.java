@@ -0,0 +1,174 @@
+package com.chikli.hudson.plugin.naginator;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispatches retries so that they get in the way as little as possible.
+ *
+ * <ul>
+ * <li>Keeps retries off the node the failed build ran on, and off nodes whose
+ * {@link NodeHealth} is poor, so that the retry does not fail the same way.
+ * This only lasts {@link #AVOID_TIMEOUT} seconds past the retry delay, after
+ * which the retry may run anywhere rather than wait for a better node.</li>
+ * <li>Holds automatic retries back while fresh builds wait for the idle executors,
+ * so that feedback on new changes comes first. This only lasts {@link #DEFER_TIMEOUT}
+ * seconds past the retry delay, so retries are not starved. Retries asked for
+ * by users, one by one or in bulk, are not held back and count as fresh builds.</li>
+ * <li>Keeps retries of jobs using a {@link ProbeDelay} in the queue until the
+ * dependency they wait for is up. This only lasts {@link #PROBE_TIMEOUT} seconds
+ * past the retry delay, after which the retry runs anyway, so that it does not
+ * hold back the builds of its job forever.</li>
+ * </ul>
+ *
+ * @see NaginatorPublisher#isAvoidFailedNode()
+ */
+@Extension
+public class NaginatorQueueTaskDispatcher extends QueueTaskDispatcher {
+
+    static final int AVOID_TIMEOUT = Integer.getInteger(NaginatorQueueTaskDispatcher.class.getName() + ".avoidTimeout", 10 * 60);
+
+    /**
+     * Set to 0 to let retries compete with fresh builds.
+     */
+    static final int DEFER_TIMEOUT = Integer.getInteger(NaginatorQueueTaskDispatcher.class.getName() + ".deferTimeout", 10 * 60);
+
+    static final int PROBE_TIMEOUT = Integer.getInteger(NaginatorQueueTaskDispatcher.class.getName() + ".probeTimeout", 60 * 60);
+
+    /**
+     * How long a {@link Load} is reused, as it is asked for each node and item.
+     */
+    private static final long LOAD_TTL = 1000;
+
+    private volatile Load load;
+
+    @Override
+    public CauseOfBlockage canTake(Node node, Queue.BuildableItem item) {
+        NaginatorAction action = item.getAction(NaginatorAction.class);
+        if (action == null) {
+            return null;
+        }
+
+        int delay = action.getDelay() != null ? action.getDelay() : 0;
+        long waited = System.currentTimeMillis() - item.getInQueueSince();
+
+        if (action.getFailedNode() != null && waited <= (delay + AVOID_TIMEOUT) * 1000L) {
+            String nodeName = node.getNodeName();
+            if (nodeName.equals(action.getFailedNode()) || !NodeHealth.get().isHealthy(nodeName)) {
+                return new AvoidedNode(node);
+            }
+        }
+
+        if (DEFER_TIMEOUT > 0 && action.getDelay() != null && waited <= (delay + DEFER_TIMEOUT) * 1000L && getLoad().isSaturated(node)) {
+            return new Deferred();
+        }
+        return null;
+    }
+
+    @Override
+    public CauseOfBlockage canRun(Queue.Item item) {
+        NaginatorAction action = item.getAction(NaginatorAction.class);
+        // manual retries do not wait
+        if (action == null || action.getDelay() == null || !(item.task instanceof AbstractProject)) {
+            return null;
+        }
+        NaginatorPublisher naginator = ((AbstractProject<?, ?>) item.task).getPublishersList().get(NaginatorPublisher.class);
+        if (naginator == null || !(naginator.getDelay() instanceof ProbeDelay)) {
+            return null;
+        }
+        // while it waits, new builds of the job are folded into it
+        if (System.currentTimeMillis() - item.getInQueueSince() > (action.getDelay() + PROBE_TIMEOUT) * 1000L) {
+            return null;
+        }
+        return ((ProbeDelay) naginator.getDelay()).canRun(item);
+    }
+
+    /**
+     * Tells whether the item is a retry scheduled by {@link NaginatorListener},
+     * rather than by a user.
+     */
+    private static boolean isAutomaticRetry(Queue.Item item) {
+        NaginatorAction action = item.getAction(NaginatorAction.class);
+        return action != null && action.getDelay() != null;
+    }
+
+    private Load getLoad() {
+        Load l = load;
+        if (l == null || System.currentTimeMillis() - l.timestamp > LOAD_TTL) {
+            load = l = new Load();
+        }
+        return l;
+    }
+
+    /**
+     * Fresh builds waiting for an executor, and which nodes they keep busy.
+     */
+    static final class Load {
+        final long timestamp = System.currentTimeMillis();
+
+        private final List<Queue.BuildableItem> freshBuilds = new ArrayList<Queue.BuildableItem>();
+
+        private final Map<String, Boolean> saturated = new HashMap<String, Boolean>();
+
+        Load() {
+            for (Queue.BuildableItem i : Jenkins.getInstance().getQueue().getBuildableItems()) {
+                if (!isAutomaticRetry(i)) {
+                    freshBuilds.add(i);
+                }
+            }
+        }
+
+        /**
+         * Tells whether there are at least as many fresh builds which could run on
+         * the node as it has idle executors. Fresh builds which cannot run there,
+         * such as those waiting for an offline label, do not count.
+         */
+        synchronized boolean isSaturated(Node node) {
+            Boolean s = saturated.get(node.getNodeName());
+            if (s == null) {
+                int fresh = 0;
+                for (Queue.BuildableItem i : freshBuilds) {
+                    if (node.canTake(i) == null) {
+                        fresh++;
+                    }
+                }
+                Computer c = node.toComputer();
+                int idle = (c != null && c.isOnline() && c.isAcceptingTasks()) ? c.countIdle() : 0;
+                s = fresh > 0 && idle <= fresh;
+                saturated.put(node.getNodeName(), s);
+            }
+            return s;
+        }
+    }
+
+    public static class AvoidedNode extends CauseOfBlockage {
+        private final Node node;
+
+        public AvoidedNode(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return Messages.NaginatorQueueTaskDispatcher_AvoidedNode(node.getDisplayName());
+        }
+    }
+
+    public static class Deferred extends CauseOfBlockage {
+        @Override
+        public String getShortDescription() {
+            return Messages.NaginatorQueueTaskDispatcher_Deferred();
+        }
+    }
+}
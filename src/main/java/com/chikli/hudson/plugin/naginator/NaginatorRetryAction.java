@@ -37,14 +37,12 @@ public class NaginatorRetryAction implements Action {
 
     public void doIndex(StaplerResponse res, @AncestorInPath AbstractBuild build) throws IOException {
         Jenkins.getInstance().checkPermission(Item.BUILD);
-        NaginatorRetryAction.scheduleBuild(build, 0);
+        if (NaginatorRetryAction.scheduleBuild(build, 0, new NaginatorAction())) {
+            RetryJournal.get().record(build, RetryJournal.Event.MANUAL, RetryJournal.getRetryIndex(build) + 1, 0, null);
+        }
         res.sendRedirect2(build.getUpUrl());
     }
 
-    static boolean scheduleBuild(final AbstractBuild<?, ?> build, final int delay) {
-        return scheduleBuild(build, delay, new NaginatorAction());
-    }
-
     static boolean scheduleBuild(final AbstractBuild<?, ?> build, final int delay, final NaginatorAction action) {
         final List<Action> actions = new ArrayList<Action>();
         actions.add(action);
@@ -0,0 +1,133 @@
+package com.chikli.hudson.plugin.naginator;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.slaves.ComputerListener;
+import jenkins.model.Jenkins;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Controller-side health score of each node, fed by the outcome of the
+ * retries which ran on it.
+ *
+ * <p>
+ * The score is an exponentially weighted average of passed (1) and failed (0)
+ * retries, starting at 1 for nodes that never ran a retry. Failures which are
+ * not the node's fault are recorded too, so the score heals back toward 1 over
+ * {@link #HALF_LIFE}: a node avoided because of them is tried again before long,
+ * even when no retry runs there in the meantime. Nodes are forgotten once healed
+ * or removed. Nothing is persisted: the scores are rebuilt from fresh outcomes
+ * after a restart.
+ */
+public final class NodeHealth {
+
+    /**
+     * Weight of the latest outcome in the score.
+     */
+    static final double WEIGHT = 0.2;
+
+    /**
+     * Nodes scoring below this are considered unhealthy.
+     */
+    static final double THRESHOLD = 0.5;
+
+    /**
+     * Milliseconds after which the distance of a score to 1 halves.
+     */
+    static final long HALF_LIFE = Long.getLong(NodeHealth.class.getName() + ".halfLife", 30 * 60 * 1000L);
+
+    /**
+     * Scores this close to 1 are dropped.
+     */
+    static final double HEALED = 0.99;
+
+    private static final NodeHealth INSTANCE = new NodeHealth();
+
+    private static final class Score {
+        final double value;
+        final long timestamp;
+
+        Score(double value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        double at(long now) {
+            long elapsed = Math.max(0, now - timestamp);
+            return 1 - (1 - value) * Math.pow(0.5, (double) elapsed / HALF_LIFE);
+        }
+    }
+
+    private final Map<String, Score> scores = new HashMap<String, Score>();
+
+    NodeHealth() {
+    }
+
+    public static NodeHealth get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param nodeName name of the node the retry ran on, "" for the master.
+     */
+    public void record(String nodeName, boolean passed) {
+        record(nodeName, passed, System.currentTimeMillis());
+    }
+
+    synchronized void record(String nodeName, boolean passed, long now) {
+        double score = getScore(nodeName, now);
+        scores.put(nodeName, new Score((1 - WEIGHT) * score + WEIGHT * (passed ? 1 : 0), now));
+        for (Iterator<Score> it = scores.values().iterator(); it.hasNext();) {
+            if (it.next().at(now) >= HEALED) {
+                it.remove();
+            }
+        }
+    }
+
+    public double getScore(String nodeName) {
+        return getScore(nodeName, System.currentTimeMillis());
+    }
+
+    synchronized double getScore(String nodeName, long now) {
+        Score score = scores.get(nodeName);
+        return score != null ? score.at(now) : 1;
+    }
+
+    public boolean isHealthy(String nodeName) {
+        return getScore(nodeName) >= THRESHOLD;
+    }
+
+    /**
+     * Forgets the nodes which are not listed.
+     */
+    synchronized void retain(Collection<String> nodeNames) {
+        scores.keySet().retainAll(nodeNames);
+    }
+
+    synchronized int size() {
+        return scores.size();
+    }
+
+    /**
+     * Forgets the nodes removed from Jenkins, such as cloud agents.
+     */
+    @Extension
+    public static class Pruner extends ComputerListener {
+        @Override
+        public void onConfigurationChange() {
+            Jenkins jenkins = Jenkins.getInstance();
+            Set<String> names = new HashSet<String>();
+            names.add(jenkins.getNodeName());
+            for (Node node : jenkins.getNodes()) {
+                names.add(node.getNodeName());
+            }
+            get().retain(names);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.chikli.hudson.plugin.naginator;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.util.FormValidation;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Waits for a dependency of the build to be up before retrying.
+ *
+ * <p>
+ * The retry is scheduled after a fixed delay, then kept in the queue, off the
+ * executors, until its {@link DependencyProbe} passes or
+ * {@link NaginatorQueueTaskDispatcher#PROBE_TIMEOUT} seconds have passed.
+ *
+ * @see NaginatorQueueTaskDispatcher#canRun(Queue.Item)
+ */
+public class ProbeDelay extends ScheduleDelay {
+
+    private String probe;
+
+    private int delay;
+
+    private int waveSize;
+
+    @DataBoundConstructor
+    public ProbeDelay(String probe, int delay, int waveSize) {
+        this.probe = probe != null ? probe.trim() : null;
+        this.delay = delay;
+        this.waveSize = waveSize;
+    }
+
+    public String getProbe() {
+        return probe;
+    }
+
+    public int getDelay() {
+        return delay;
+    }
+
+    /**
+     * Maximum number of waiting retries released per minute once the
+     * dependency is up, 0 for no limit.
+     */
+    public int getWaveSize() {
+        return waveSize;
+    }
+
+    @Override
+    public int computeScheduleDelay(AbstractBuild failedBuild) {
+        return delay;
+    }
+
+    /**
+     * @return null if the retry may run now.
+     */
+    CauseOfBlockage canRun(Queue.Item item) {
+        if (probe == null || probe.length() == 0) {
+            return null;
+        }
+        return DependencyProbe.get(probe).admit(item.id, waveSize) ? null : new WaitingForDependency(probe);
+    }
+
+    public static class WaitingForDependency extends CauseOfBlockage {
+        private final String probe;
+
+        public WaitingForDependency(String probe) {
+            this.probe = probe;
+        }
+
+        @Override
+        public String getShortDescription() {
+            DependencyProbe p = DependencyProbe.find(probe);
+            return p != null && p.isUp()
+                    ? Messages.ProbeDelay_WaitingForWave(probe)
+                    : Messages.ProbeDelay_WaitingForDependency(probe);
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends ScheduleDelayDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Wait for dependency";
+        }
+
+        public FormValidation doCheckProbe(@QueryParameter String value) {
+            String error = DependencyProbe.validate(value.trim());
+            return error == null ? FormValidation.ok() : FormValidation.error(error);
+        }
+    }
+}
@@ -0,0 +1,663 @@
+package com.chikli.hudson.plugin.naginator;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.Item;
+import hudson.model.Result;
+import hudson.model.Run;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Append-only journal of the retry decisions, so that retries can be reported
+ * on across jobs without loading their builds.
+ *
+ * <p>
+ * Each decision is a tab separated line in <tt>$JENKINS_HOME/naginator-journal/journal.log</tt>,
+ * rotated once it reaches {@link #MAX_SIZE}, keeping {@link #MAX_FILES} files.
+ * Counts per job and day, and where each job's entries are in the files, are
+ * indexed in memory, read from the journal when first needed and pruned along
+ * with the files. They are served under <tt>/naginator/journal/</tt>:
+ * <tt>stats?days=7</tt> lists the jobs which retried the most, and
+ * <tt>entries?job=name&amp;days=7</tt> lists the decisions themselves, read
+ * from where the index points rather than by scanning the journal.
+ */
+@Extension
+public final class RetryJournal {
+
+    public enum Event {
+        /** A retry was scheduled after a failure. */
+        SCHEDULED,
+        /** A retry was requested by hand. */
+        MANUAL,
+        /** The failure was not retried as the regular expression was not found. */
+        NOT_MATCHED,
+        /** The failure was not retried as there were enough retries already. */
+        MAX_SCHEDULE,
+        /** The failure was not retried as it kept occurring the same way. */
+        REPEATED_FAILURE,
+        /** A retry completed. */
+        COMPLETED
+    }
+
+    static final long MAX_SIZE = 10 * 1024 * 1024;
+
+    static final int MAX_FILES = 5;
+
+    static final String FILE_NAME = "journal.log";
+
+    /**
+     * Bits of a location holding the offset in its file, see {@link #location(int, long)}.
+     */
+    private static final int OFFSET_BITS = 40;
+
+    private final File dir;
+
+    private final long maxSize;
+
+    /**
+     * Generation of {@link #FILE_NAME}, increased at each rotation; the file
+     * rotated <tt>i</tt> times is of generation <tt>generation - i</tt>.
+     */
+    private int generation = MAX_FILES;
+
+    /**
+     * Index of each job, or null until read.
+     */
+    private Map<String, JobIndex> index;
+
+    /**
+     * Entries appended while the index is read from the journal, and their locations, or null.
+     */
+    private List<Entry> appendedWhileLoading;
+
+    private List<Long> appendedLocations;
+
+    private final Object loadLock = new Object();
+
+    public RetryJournal() {
+        this(new File(Jenkins.getInstance().getRootDir(), "naginator-journal"));
+    }
+
+    RetryJournal(File dir) {
+        this(dir, MAX_SIZE);
+    }
+
+    RetryJournal(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the journal of this Jenkins.
+     */
+    public static RetryJournal get() {
+        return Jenkins.getInstance().getExtensionList(RetryJournal.class).get(RetryJournal.class);
+    }
+
+    /**
+     * One decision.
+     */
+    public static class Entry {
+        public final long time;
+        public final String job;
+        public final int build;
+        public final Event event;
+        /** Position of the retry in its chain, 1 for the first retry. */
+        public final int retry;
+        /** Seconds the retry was delayed by, -1 if none was scheduled. */
+        public final int delay;
+        /** Whether the regular expression was found, null if not checked. */
+        public final Boolean regexpMatched;
+        public final String result;
+
+        public Entry(long time, String job, int build, Event event, int retry, int delay, Boolean regexpMatched, String result) {
+            this.time = time;
+            this.job = job;
+            this.build = build;
+            this.event = event;
+            this.retry = retry;
+            this.delay = delay;
+            this.regexpMatched = regexpMatched;
+            this.result = result;
+        }
+
+        String toLine() {
+            return time + "\t" + job.replaceAll("[\t\r\n]", " ") + "\t" + build + "\t" + event + "\t" + retry + "\t" + delay
+                    + "\t" + (regexpMatched == null ? "-" : regexpMatched.toString()) + "\t" + result;
+        }
+
+        static Entry parse(String line) {
+            String[] f = line.split("\t");
+            if (f.length != 8) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(f[0]), f[1], Integer.parseInt(f[2]), Event.valueOf(f[3]),
+                        Integer.parseInt(f[4]), Integer.parseInt(f[5]),
+                        f[6].equals("-") ? null : Boolean.valueOf(f[6]), f[7]);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("time", time);
+            json.put("job", job);
+            json.put("build", build);
+            json.put("event", event.toString());
+            json.put("retry", retry);
+            json.put("delay", delay);
+            json.put("regexpMatched", regexpMatched);
+            json.put("result", result);
+            return json;
+        }
+    }
+
+    /**
+     * Retries of a job over some period.
+     */
+    public static class JobStats {
+        public final String job;
+        public int scheduled;
+        public int passed;
+        public int failed;
+
+        JobStats(String job) {
+            this.job = job;
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("job", job);
+            json.put("scheduled", scheduled);
+            json.put("passed", passed);
+            json.put("failed", failed);
+            return json;
+        }
+    }
+
+    /**
+     * Records a decision about the build.
+     *
+     * @param retry position in its chain of the retry this decision is about.
+     */
+    public void record(AbstractBuild<?, ?> build, Event event, int retry, int delay, Boolean regexpMatched) {
+        Result result = build.getResult();
+        append(new Entry(System.currentTimeMillis(), build.getProject().getFullName(), build.getNumber(),
+                event, retry, delay, regexpMatched, result != null ? result.toString() : "-"));
+    }
+
+    /**
+     * Returns the number of retries the build is at the end of, 0 if it is not a retry.
+     */
+    static int getRetryIndex(Run<?, ?> build) {
+        int n = 0;
+        for (Run<?, ?> r = build; r != null && r.getAction(NaginatorAction.class) != null; r = r.getPreviousBuild()) {
+            n++;
+        }
+        return n;
+    }
+
+    synchronized void append(Entry entry) {
+        long location;
+        try {
+            File file = new File(dir, FILE_NAME);
+            if (file.length() >= maxSize) {
+                rotate();
+            }
+            dir.mkdirs();
+            location = location(generation, file.length());
+            Writer w = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+            try {
+                w.write(entry.toLine());
+                w.write('\n');
+            } finally {
+                w.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "failed to write to the retry journal", e);
+            return;
+        }
+        if (index != null) {
+            addToIndex(index, entry, location);
+        } else if (appendedWhileLoading != null) {
+            appendedWhileLoading.add(entry);
+            appendedLocations.add(location);
+        }
+    }
+
+    private void rotate() {
+        new File(dir, FILE_NAME + "." + (MAX_FILES - 1)).delete();
+        for (int i = MAX_FILES - 2; i >= 0; i--) {
+            File from = getFile(i);
+            if (from.exists() && !from.renameTo(new File(dir, FILE_NAME + "." + (i + 1)))) {
+                LOGGER.log(Level.WARNING, "failed to rotate {0}", from);
+            }
+        }
+        generation++;
+        if (index != null) {
+            prune(index, generation - MAX_FILES + 1);
+        }
+    }
+
+    /**
+     * Returns the file rotated the given number of times.
+     */
+    private File getFile(int rotations) {
+        return new File(dir, rotations == 0 ? FILE_NAME : FILE_NAME + "." + rotations);
+    }
+
+    /**
+     * Where an entry is: the generation of its file and its offset in there.
+     */
+    private static long location(int generation, long offset) {
+        return ((long) generation << OFFSET_BITS) | offset;
+    }
+
+    private static int generationOf(long location) {
+        return (int) (location >>> OFFSET_BITS);
+    }
+
+    private static long offsetOf(long location) {
+        return location & ((1L << OFFSET_BITS) - 1);
+    }
+
+    /**
+     * What is known of the entries of a job.
+     */
+    private static final class JobIndex {
+        /**
+         * Scheduled, passed and failed retries per generation, then per day.
+         */
+        final SortedMap<Integer, SortedMap<Long, int[]>> counts = new TreeMap<Integer, SortedMap<Long, int[]>>();
+
+        /**
+         * Locations of the entries, oldest first.
+         */
+        long[] locations = new long[8];
+
+        int size;
+
+        void add(long location) {
+            if (size == locations.length) {
+                locations = Arrays.copyOf(locations, size * 2);
+            }
+            locations[size++] = location;
+        }
+
+        /**
+         * Forgets what is in files older than the given generation.
+         */
+        void prune(int oldest) {
+            counts.headMap(oldest).clear();
+            int n = 0;
+            while (n < size && generationOf(locations[n]) < oldest) {
+                n++;
+            }
+            if (n > 0) {
+                System.arraycopy(locations, n, locations, 0, size - n);
+                size -= n;
+            }
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    private static void prune(Map<String, JobIndex> index, int oldest) {
+        for (Iterator<JobIndex> it = index.values().iterator(); it.hasNext();) {
+            JobIndex j = it.next();
+            j.prune(oldest);
+            if (j.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private interface EntryHandler {
+        void handle(Entry entry, long location);
+    }
+
+    /**
+     * A journal file opened for reading, and its generation.
+     */
+    private static final class Segment {
+        final int generation;
+        final InputStream in;
+
+        Segment(int generation, InputStream in) {
+            this.generation = generation;
+            this.in = in;
+        }
+    }
+
+    /**
+     * Opens the journal files as they are now, oldest first, so that they can be
+     * read without holding up {@link #append(Entry)}. Entries appended later are
+     * not read, and files rotated meanwhile are still read from where they were opened.
+     */
+    private synchronized List<Segment> open() {
+        List<Segment> segments = new ArrayList<Segment>();
+        for (int i = MAX_FILES - 1; i >= 0; i--) {
+            File f = getFile(i);
+            if (!f.exists()) {
+                continue;
+            }
+            try {
+                segments.add(new Segment(generation - i, new BoundedInputStream(new FileInputStream(f), f.length())));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "failed to open " + f, e);
+            }
+        }
+        return segments;
+    }
+
+    private static void scan(List<Segment> segments, EntryHandler handler) {
+        for (Segment segment : segments) {
+            try {
+                InputStream in = new BufferedInputStream(segment.in);
+                try {
+                    ByteArrayOutputStream line = new ByteArrayOutputStream();
+                    long offset = 0;
+                    long start = 0;
+                    int b;
+                    while ((b = in.read()) != -1) {
+                        offset++;
+                        if (b != '\n') {
+                            line.write(b);
+                            continue;
+                        }
+                        Entry entry = Entry.parse(line.toString("UTF-8"));
+                        if (entry != null) {
+                            handler.handle(entry, location(segment.generation, start));
+                        }
+                        line.reset();
+                        start = offset;
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "failed to read the retry journal", e);
+            }
+        }
+    }
+
+    private static void addToIndex(Map<String, JobIndex> index, Entry entry, long location) {
+        JobIndex j = index.get(entry.job);
+        if (j == null) {
+            j = new JobIndex();
+            index.put(entry.job, j);
+        }
+        j.add(location);
+
+        int column;
+        switch (entry.event) {
+        case SCHEDULED:
+        case MANUAL:
+            column = 0;
+            break;
+        case COMPLETED:
+            column = Result.SUCCESS.toString().equals(entry.result) ? 1 : 2;
+            break;
+        default:
+            return;
+        }
+        int generation = generationOf(location);
+        SortedMap<Long, int[]> days = j.counts.get(generation);
+        if (days == null) {
+            days = new TreeMap<Long, int[]>();
+            j.counts.put(generation, days);
+        }
+        long day = TimeUnit.MILLISECONDS.toDays(entry.time);
+        int[] counts = days.get(day);
+        if (counts == null) {
+            counts = new int[3];
+            days.put(day, counts);
+        }
+        counts[column]++;
+    }
+
+    /**
+     * Reads the index from the journal if not done yet, without holding up
+     * the decisions being recorded meanwhile.
+     */
+    private void loadIndex() {
+        synchronized (loadLock) {
+            List<Segment> segments;
+            synchronized (this) {
+                if (index != null) {
+                    return;
+                }
+                appendedWhileLoading = new ArrayList<Entry>();
+                appendedLocations = new ArrayList<Long>();
+                segments = open();
+            }
+            final Map<String, JobIndex> loaded = new HashMap<String, JobIndex>();
+            scan(segments, new EntryHandler() {
+                public void handle(Entry entry, long location) {
+                    addToIndex(loaded, entry, location);
+                }
+            });
+            synchronized (this) {
+                for (int i = 0; i < appendedWhileLoading.size(); i++) {
+                    addToIndex(loaded, appendedWhileLoading.get(i), appendedLocations.get(i));
+                }
+                appendedWhileLoading = null;
+                appendedLocations = null;
+                // files may have been rotated out while they were read
+                prune(loaded, generation - MAX_FILES + 1);
+                index = loaded;
+            }
+        }
+    }
+
+    private static boolean isVisible(String job) {
+        return Jenkins.getInstance().getItemByFullName(job, Item.class) != null;
+    }
+
+    /**
+     * Returns the retries of the jobs visible to the current user over the last days,
+     * most retried first.
+     */
+    public List<JobStats> getStats(int days) {
+        List<JobStats> stats = countStats(days);
+        for (Iterator<JobStats> it = stats.iterator(); it.hasNext();) {
+            if (!isVisible(it.next().job)) {
+                it.remove();
+            }
+        }
+        Collections.sort(stats, new Comparator<JobStats>() {
+            public int compare(JobStats a, JobStats b) {
+                return b.scheduled - a.scheduled;
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * Returns the retries of every job over the last days, from the index.
+     */
+    List<JobStats> countStats(int days) {
+        long since = TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis()) - days + 1;
+        loadIndex();
+        List<JobStats> stats = new ArrayList<JobStats>();
+        synchronized (this) {
+            for (Map.Entry<String, JobIndex> e : index.entrySet()) {
+                JobStats s = new JobStats(e.getKey());
+                for (SortedMap<Long, int[]> days : e.getValue().counts.values()) {
+                    for (int[] counts : days.tailMap(since).values()) {
+                        s.scheduled += counts[0];
+                        s.passed += counts[1];
+                        s.failed += counts[2];
+                    }
+                }
+                if (s.scheduled + s.passed + s.failed > 0) {
+                    stats.add(s);
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the latest decisions about a job over the last days, oldest first.
+     */
+    public List<Entry> getEntries(String job, int days, int limit) {
+        if (!isVisible(job)) {
+            return Collections.emptyList();
+        }
+        return readEntries(job, days, limit);
+    }
+
+    /**
+     * Reads the latest decisions about a job from where the index points, without
+     * holding up the decisions being recorded meanwhile.
+     */
+    List<Entry> readEntries(String job, int days, int limit) {
+        long since = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+        loadIndex();
+        long[] locations;
+        Map<Integer, RandomAccessFile> files = new HashMap<Integer, RandomAccessFile>();
+        List<Entry> entries = new ArrayList<Entry>();
+        try {
+            synchronized (this) {
+                JobIndex j = index.get(job);
+                if (j == null) {
+                    return entries;
+                }
+                int n = Math.min(limit, j.size);
+                locations = Arrays.copyOfRange(j.locations, j.size - n, j.size);
+                // opened now, so that they are read as indexed even if rotated meanwhile
+                for (long location : locations) {
+                    int g = generationOf(location);
+                    if (!files.containsKey(g)) {
+                        try {
+                            files.put(g, new RandomAccessFile(getFile(generation - g), "r"));
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "failed to open the retry journal", e);
+                            files.put(g, null);
+                        }
+                    }
+                }
+            }
+
+            for (long location : locations) {
+                RandomAccessFile file = files.get(generationOf(location));
+                if (file == null) {
+                    continue;
+                }
+                Entry entry = Entry.parse(readLine(file, offsetOf(location)));
+                // entries are in order, those in the period come last
+                if (entry != null && entry.time >= since && entry.job.equals(job)) {
+                    entries.add(entry);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "failed to read the retry journal", e);
+        } finally {
+            for (RandomAccessFile file : files.values()) {
+                if (file != null) {
+                    try {
+                        file.close();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "failed to close the retry journal", e);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static String readLine(RandomAccessFile file, long offset) throws IOException {
+        file.seek(offset);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        byte[] buf = new byte[256];
+        int n;
+        while ((n = file.read(buf)) != -1) {
+            for (int i = 0; i < n; i++) {
+                if (buf[i] == '\n') {
+                    line.write(buf, 0, i);
+                    return line.toString("UTF-8");
+                }
+            }
+            line.write(buf, 0, n);
+        }
+        return line.toString("UTF-8");
+    }
+
+    /**
+     * Parses the number of days to report on, 7 by default.
+     */
+    public int getDays(String days) {
+        try {
+            int n = Integer.parseInt(days);
+            return n > 0 ? n : 7;
+        } catch (NumberFormatException e) {
+            return 7;
+        }
+    }
+
+    public void doStats(StaplerResponse rsp, @QueryParameter int days) throws IOException {
+        JSONArray jobs = new JSONArray();
+        for (JobStats s : getStats(days > 0 ? days : 7)) {
+            jobs.add(s.toJSON());
+        }
+        JSONObject json = new JSONObject();
+        json.put("jobs", jobs);
+        writeJSON(rsp, json);
+    }
+
+    public void doEntries(StaplerResponse rsp, @QueryParameter String job, @QueryParameter int days,
+                          @QueryParameter int limit) throws IOException {
+        JSONArray entries = new JSONArray();
+        if (job != null) {
+            for (Entry e : getEntries(job, days > 0 ? days : 7, limit > 0 ? limit : 1000)) {
+                entries.add(e.toJSON());
+            }
+        }
+        JSONObject json = new JSONObject();
+        json.put("entries", entries);
+        writeJSON(rsp, json);
+    }
+
+    private static void writeJSON(StaplerResponse rsp, JSONObject json) throws IOException {
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(json.toString());
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(RetryJournal.class.getName());
+}
@@ -0,0 +1,94 @@
+package com.chikli.hudson.plugin.naginator;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * A regular expression to rerun on, shared by all the jobs which refer to its id.
+ *
+ * <p>
+ * The pattern is compiled once and shared across threads, as {@link Pattern} is immutable.
+ *
+ * @see NaginatorPublisher.DescriptorImpl#getRules()
+ */
+public class RetryRule extends AbstractDescribableImpl<RetryRule> {
+
+    private final String id;
+
+    private final String regexp;
+
+    private transient volatile Pattern pattern;
+
+    /**
+     * Set once the regular expression failed to compile, so that it is reported once.
+     */
+    private transient volatile boolean invalid;
+
+    @DataBoundConstructor
+    public RetryRule(String id, String regexp) {
+        this.id = Util.fixEmptyAndTrim(id);
+        this.regexp = regexp;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getRegexp() {
+        return regexp;
+    }
+
+    /**
+     * @return the compiled regular expression, or null if it is empty or invalid.
+     */
+    public Pattern getPattern() {
+        Pattern p = pattern;
+        if (p == null && !invalid && Util.fixEmpty(regexp) != null) {
+            try {
+                pattern = p = Pattern.compile(regexp);
+            } catch (PatternSyntaxException e) {
+                invalid = true;
+                LOGGER.log(Level.WARNING, "invalid regular expression in naginator rule " + id, e);
+            }
+        }
+        return p;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<RetryRule> {
+        @Override
+        public String getDisplayName() {
+            return "Retry rule";
+        }
+
+        public FormValidation doCheckId(@QueryParameter String value) {
+            return Util.fixEmptyAndTrim(value) == null ? FormValidation.error("Required") : FormValidation.ok();
+        }
+
+        public FormValidation doCheckRegexp(@QueryParameter String value) {
+            // unlike a job's own, an empty rule would match nothing
+            if (Util.fixEmpty(value) == null) {
+                return FormValidation.error("Required");
+            }
+            try {
+                Pattern.compile(value);
+                return FormValidation.ok();
+            } catch (PatternSyntaxException e) {
+                return FormValidation.error(e.getDescription());
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(RetryRule.class.getName());
+}
@@ -13,6 +13,37 @@ public abstract class ScheduleDelay extends AbstractDescribableImpl<ScheduleDela
 
     public abstract int computeScheduleDelay(AbstractBuild failedBuild);
 
+    /**
+     * Same as {@link #computeScheduleDelay(AbstractBuild)}, for implementations
+     * which depend on how the build failed.
+     *
+     * @param failedBuild the build to retry
+     * @param failureSignature the signature of its failure, as computed by {@link NaginatorListener}
+     */
+    public int computeScheduleDelay(AbstractBuild failedBuild, String failureSignature) {
+        return computeScheduleDelay(failedBuild);
+    }
+
+    /**
+     * Tells whether {@link #computeScheduleDelay(AbstractBuild, String)} or
+     * {@link #onRetryCompleted} make use of failure signatures, which are not
+     * computed otherwise unless {@link NaginatorPublisher#getMaxIdenticalFailures()} is set.
+     */
+    public boolean usesFailureSignature() {
+        return false;
+    }
+
+    /**
+     * Called when a build scheduled by this plugin completes, so that
+     * implementations can learn from the outcome of their own delays.
+     *
+     * @param retryBuild the completed retry
+     * @param action the {@link NaginatorAction} the retry was scheduled with
+     * @param passed whether the retry succeeded (or would not be retried again)
+     */
+    public void onRetryCompleted(AbstractBuild retryBuild, NaginatorAction action, boolean passed) {
+    }
+
     public static DescriptorExtensionList<ScheduleDelay, Descriptor<ScheduleDelay>> all() {
         return Jenkins.getInstance().getDescriptorList(ScheduleDelay.class);
     }
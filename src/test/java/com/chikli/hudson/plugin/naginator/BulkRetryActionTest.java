@@ -0,0 +1,90 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.jvnet.hudson.test.FailureBuilder;
+import org.jvnet.hudson.test.HudsonTestCase;
+import org.kohsuke.stapler.StaplerResponse;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.RootAction;
+import net.sf.json.JSONObject;
+
+/**
+ * A test suite for {@link BulkRetryAction} and {@link BulkRetryJob}.
+ */
+public class BulkRetryActionTest extends HudsonTestCase {
+
+    public void testCountDue() {
+        // The first build goes right away
+        assertEquals(1, BulkRetryJob.countDue(0, 60));
+        assertEquals(1, BulkRetryJob.countDue(999, 60));
+        assertEquals(2, BulkRetryJob.countDue(1000, 60));
+        assertEquals(31, BulkRetryJob.countDue(30 * 1000, 60));
+
+        assertEquals(1, BulkRetryJob.countDue(59 * 1000, 1));
+        assertEquals(2, BulkRetryJob.countDue(60 * 1000, 1));
+
+        assertEquals(11, BulkRetryJob.countDue(1000, 600));
+    }
+
+    public void testRetryFailedBuildsOfView() throws Exception {
+        FreeStyleProject failed = createFreeStyleProject();
+        failed.getBuildersList().add(new FailureBuilder());
+        FreeStyleProject passed = createFreeStyleProject();
+        assertBuildStatus(Result.FAILURE, failed.scheduleBuild2(0).get());
+        buildAndAssertSuccess(passed);
+
+        JSONObject json = retry(jenkins.getPrimaryView().getViewName(), null);
+        assertEquals(1, json.getInt("total"));
+        BulkRetryJob job = waitUntilDone(json.getInt("id"));
+        assertEquals(1, job.getScheduled());
+        waitUntilNoActivity();
+
+        assertEquals(2, failed.getLastBuild().getNumber());
+        assertNotNull(failed.getLastBuild().getAction(NaginatorAction.class));
+        assertEquals(1, passed.getLastBuild().getNumber());
+    }
+
+    public void testRetryListedBuilds() throws Exception {
+        FreeStyleProject a = createFreeStyleProject("a");
+        FreeStyleProject b = createFreeStyleProject("b");
+        buildAndAssertSuccess(a);
+        buildAndAssertSuccess(b);
+
+        // Unknown jobs, builds and malformed references are skipped
+        JSONObject json = retry(null, "a#1, b#2\nc#1,b#x,b");
+        assertEquals(1, json.getInt("total"));
+        waitUntilDone(json.getInt("id"));
+        waitUntilNoActivity();
+
+        assertEquals(2, a.getLastBuild().getNumber());
+        assertEquals(1, b.getLastBuild().getNumber());
+    }
+
+    private JSONObject retry(String view, String builds) throws Exception {
+        StringWriter out = new StringWriter();
+        StaplerResponse rsp = mock(StaplerResponse.class);
+        when(rsp.getWriter()).thenReturn(new PrintWriter(out, true));
+        getAction().doRetry(rsp, view, null, builds, 600);
+        return JSONObject.fromObject(out.toString());
+    }
+
+    private BulkRetryJob waitUntilDone(int id) throws InterruptedException {
+        BulkRetryJob job = getAction().getJob(id);
+        for (int i = 0; i < 100 && !job.isDone(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(job.isDone());
+        return job;
+    }
+
+    private BulkRetryAction getAction() {
+        return jenkins.getExtensionList(RootAction.class).get(BulkRetryAction.class);
+    }
+}
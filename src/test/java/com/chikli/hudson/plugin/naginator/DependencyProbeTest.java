@@ -0,0 +1,80 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+/**
+ * A test suite for {@link DependencyProbe}.
+ */
+public class DependencyProbeTest {
+
+    @Test
+    public void testValidate() {
+        assertNull(DependencyProbe.validate("tcp://db.example.com:5432"));
+        assertNull(DependencyProbe.validate("https://repo.example.com/health"));
+        assertNotNull(DependencyProbe.validate("tcp://db.example.com"));
+        assertNotNull(DependencyProbe.validate("ftp://repo.example.com/"));
+        assertNotNull(DependencyProbe.validate("ping db"));
+    }
+
+    @Test
+    public void testSharedByAllJobs() {
+        assertSame(DependencyProbe.get("tcp://shared:1"), DependencyProbe.get("tcp://shared:1"));
+    }
+
+    @Test
+    public void testFindDoesNotCreate() {
+        assertNull(DependencyProbe.find("tcp://unknown:1"));
+        assertNull(DependencyProbe.find("tcp://unknown:1"));
+        DependencyProbe probe = DependencyProbe.get("tcp://unknown:1");
+        assertSame(probe, DependencyProbe.find("tcp://unknown:1"));
+    }
+
+    @Test
+    public void testReleaseInWaves() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        try {
+            DependencyProbe probe = DependencyProbe.get("tcp://localhost:" + server.getLocalPort());
+            // not checked yet
+            assertFalse(probe.admit(1, 2));
+
+            probe.check();
+            assertTrue(probe.isUp());
+            assertTrue(probe.admit(1, 2));
+            assertTrue(probe.admit(2, 2));
+            assertFalse(probe.admit(3, 2));
+            // already released items stay released
+            assertTrue(probe.admit(1, 2));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testPollerDoesNotWaitForChecks() throws Exception {
+        // accepts connections but never answers
+        ServerSocket server = new ServerSocket(0);
+        try {
+            DependencyProbe probe = DependencyProbe.get("http://localhost:" + server.getLocalPort() + "/");
+            long start = System.currentTimeMillis();
+            new DependencyProbe.Poller().doRun();
+            assertTrue(System.currentTimeMillis() - start < DependencyProbe.TIMEOUT);
+
+            // checked in the background, down once the read timed out
+            for (int i = 0; i < 100 && probe.isDue(System.currentTimeMillis()); i++) {
+                Thread.sleep(100);
+            }
+            assertFalse(probe.isDue(System.currentTimeMillis()));
+            assertFalse(probe.isUp());
+        } finally {
+            server.close();
+        }
+    }
+}
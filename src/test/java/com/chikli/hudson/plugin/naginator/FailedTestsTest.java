@@ -0,0 +1,81 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import hudson.model.AbstractBuild;
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.test.AbstractTestResultAction;
+
+/**
+ * A test suite for {@link FailedTests}.
+ */
+public class FailedTestsTest {
+
+    @Test
+    public void testToString() {
+        FailedTests tests = new FailedTests();
+        assertTrue(tests.isEmpty());
+        assertEquals("", tests.toString());
+
+        tests.add("com.example.FooTest", "testA");
+        tests.add("com.example.BarTest", "testC");
+        tests.add("com.example.FooTest", "testB");
+        tests.add("com.example.FooTest", "testA");
+        assertEquals("com.example.FooTest#testA+testB,com.example.BarTest#testC", tests.toString());
+    }
+
+    @Test
+    public void testOf() {
+        assertEquals("com.example.FooTest#test0+test1,com.example.BarTest#test2",
+                FailedTests.of(createBuild(3, "com.example.FooTest", 2, "com.example.BarTest", 1)));
+    }
+
+    @Test
+    public void testOfWithoutTestResults() {
+        assertNull(FailedTests.of(mock(AbstractBuild.class)));
+    }
+
+    @Test
+    public void testOfWithUnlistedFailures() {
+        // Failures not reported as test cases could not be rerun on their own
+        assertNull(FailedTests.of(createBuild(4, "com.example.FooTest", 2, "com.example.BarTest", 1)));
+    }
+
+    @Test
+    public void testOfTooLong() {
+        // Each test takes at least "+test0".length() characters
+        int n = FailedTests.MAX_LENGTH / 6 + 1;
+        assertNull(FailedTests.of(createBuild(n + 1, "FooTest", n, "BarTest", 1)));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static AbstractBuild<?, ?> createBuild(int failCount, String class1, int failures1, String class2, int failures2) {
+        List<CaseResult> failed = new ArrayList<CaseResult>();
+        addCaseResults(failed, class1, failures1);
+        addCaseResults(failed, class2, failures2);
+        AbstractTestResultAction tests = mock(AbstractTestResultAction.class);
+        when(tests.getFailedTests()).thenReturn(failed);
+        when(tests.getFailCount()).thenReturn(failCount);
+        AbstractBuild build = mock(AbstractBuild.class);
+        when(build.getAction(AbstractTestResultAction.class)).thenReturn(tests);
+        return build;
+    }
+
+    private static void addCaseResults(List<CaseResult> failed, String className, int count) {
+        for (int i = 0; i < count; i++) {
+            CaseResult c = mock(CaseResult.class);
+            when(c.getClassName()).thenReturn(className);
+            when(c.getName()).thenReturn("test" + failed.size());
+            failed.add(c);
+        }
+    }
+}
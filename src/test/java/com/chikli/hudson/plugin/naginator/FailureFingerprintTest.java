@@ -0,0 +1,29 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * A test suite for {@link FailureFingerprint}.
+ */
+public class FailureFingerprintTest {
+
+    @Test
+    public void testNormalize() {
+        assertEquals("[#:#:#] Build # failed", FailureFingerprint.normalize("[12:03:59]  Build 42 failed "));
+        assertEquals("commit # broke it", FailureFingerprint.normalize("commit 3f2a9c01b7e4 broke it"));
+        assertEquals("deadbeefcafe", FailureFingerprint.normalize("deadbeefcafe"));
+    }
+
+    @Test
+    public void testVariablePartsIgnored() {
+        assertEquals(
+                FailureFingerprint.of(Arrays.asList("Started at 2014-05-01 10:00:01", "Connection refused: port 8080")),
+                FailureFingerprint.of(Arrays.asList("Started at 2014-05-02 11:12:13", "Connection refused: port 8081")));
+        assertFalse(FailureFingerprint.of("Connection refused").equals(FailureFingerprint.of("Out of memory")));
+    }
+}
@@ -0,0 +1,61 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * A test suite for {@link LearnedDelay}.
+ */
+public class LearnedDelayTest {
+
+    @Test
+    public void testLadder() {
+        assertArrayEquals(new int[] {10, 20, 40, 80, 100}, new LearnedDelay(10, 100, 80).getLadder());
+        assertArrayEquals(new int[] {0, 1, 2, 4, 5}, new LearnedDelay(0, 5, 80).getLadder());
+        assertArrayEquals(new int[] {30}, new LearnedDelay(30, 10, 80).getLadder());
+        assertEquals(LearnedDelay.MAX_STEPS, new LearnedDelay(1, Integer.MAX_VALUE, 80).getLadder().length);
+    }
+
+    @Test
+    public void testStepFor() {
+        int[] ladder = {10, 20, 40};
+        assertEquals(0, LearnedDelay.stepFor(ladder, 0));
+        assertEquals(0, LearnedDelay.stepFor(ladder, 15));
+        assertEquals(1, LearnedDelay.stepFor(ladder, 20));
+        assertEquals(2, LearnedDelay.stepFor(ladder, 1000));
+    }
+
+    @Test
+    public void testChooseShortestPassingStep() {
+        LearnedDelay.Stats stats = new LearnedDelay.Stats(new int[] {10, 20, 40, 80});
+        // Nothing known yet: start with the shortest delay
+        assertEquals(0, stats.choose(0.8));
+
+        // Short delays keep failing: move on to longer ones
+        for (int i = 0; i < 4; i++) {
+            stats.record(0, false);
+        }
+        assertEquals(1, stats.choose(0.8));
+        for (int i = 0; i < 4; i++) {
+            stats.record(1, false);
+        }
+        assertEquals(2, stats.choose(0.8));
+
+        // Once a delay passes it is kept
+        for (int i = 0; i < 3; i++) {
+            stats.record(2, true);
+        }
+        assertEquals(2, stats.choose(0.8));
+    }
+
+    @Test
+    public void testChooseShorterStepOncePassing() {
+        LearnedDelay.Stats stats = new LearnedDelay.Stats(new int[] {10, 20, 40, 80});
+        for (int i = 0; i < 10; i++) {
+            stats.record(0, true);
+        }
+        assertEquals(0, stats.choose(0.8));
+    }
+}
@@ -0,0 +1,53 @@
+package com.chikli.hudson.plugin.naginator;
+
+import java.util.Collection;
+
+import org.jvnet.hudson.test.FailureBuilder;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import hudson.model.Action;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.TransientBuildActionFactory;
+
+/**
+ * A test suite for {@link NaginatorActionFactory}.
+ */
+public class NaginatorActionFactoryTest extends HudsonTestCase {
+
+    public void testRetryActionOnFailedBuilds() throws Exception {
+        FreeStyleProject project = createFreeStyleProject();
+        FreeStyleBuild passed = buildAndAssertSuccess(project);
+        project.getBuildersList().add(new FailureBuilder());
+        FreeStyleBuild failed1 = assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0).get());
+        FreeStyleBuild failed2 = assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0).get());
+
+        assertTrue(getFactory().createFor(passed).isEmpty());
+        Collection<? extends Action> actions = getFactory().createFor(failed1);
+        assertEquals(1, actions.size());
+        assertTrue(actions.iterator().next() instanceof NaginatorRetryAction);
+        // stateless, shared by all builds
+        assertSame(actions.iterator().next(), getFactory().createFor(failed2).iterator().next());
+    }
+
+    public void testOptOutTakesEffectWhenJobIsSaved() throws Exception {
+        FreeStyleProject project = createFreeStyleProject();
+        project.getBuildersList().add(new FailureBuilder());
+        FreeStyleBuild failed = assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0).get());
+        assertEquals(1, getFactory().createFor(failed).size());
+
+        project.addProperty(new NaginatorOptOutProperty(true));
+        project.save();
+        assertTrue(getFactory().createFor(failed).isEmpty());
+
+        project.removeProperty(NaginatorOptOutProperty.class);
+        project.addProperty(new NaginatorOptOutProperty(false));
+        project.save();
+        assertEquals(1, getFactory().createFor(failed).size());
+    }
+
+    private NaginatorActionFactory getFactory() {
+        return jenkins.getExtensionList(TransientBuildActionFactory.class).get(NaginatorActionFactory.class);
+    }
+}
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.util.concurrent.ExecutionException;
 
 import org.jvnet.hudson.test.HudsonTestCase;
+import org.jvnet.hudson.test.TestBuilder;
+import org.jvnet.hudson.test.TestExtension;
 import org.kohsuke.stapler.StaplerRequest;
 
 import hudson.Extension;
@@ -15,12 +17,17 @@ import hudson.model.CauseAction;
 import hudson.model.Descriptor;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
 import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
 import hudson.tasks.BuildTrigger;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
 import hudson.tasks.Builder;
 import hudson.tasks.Publisher;
+import hudson.tasks.junit.JUnitResultArchiver;
 import net.sf.json.JSONObject;
 
 public class NaginatorListenerTest extends HudsonTestCase {
@@ -101,6 +108,20 @@ public class NaginatorListenerTest extends HudsonTestCase {
         assertEquals(true, isScheduledForRetry("build log foo", Result.UNSTABLE, "foo", true, true));
     }
 
+    public void testFailureWithInvalidRegexp() throws Exception {
+        assertEquals(false, isScheduledForRetry("build log (", Result.FAILURE, "(", false, true));
+    }
+
+    public void testFailureWithMissingRule() throws Exception {
+        FreeStyleProject project = createFreeStyleProject();
+        project.getBuildersList().add(new MyBuilder("build log foo", Result.FAILURE));
+        NaginatorPublisher nag = new NaginatorPublisher("foo", false, false, true, 10, new FixedDelay(0));
+        nag.setRuleId("deleted");
+        project.getPublishersList().add(nag);
+
+        assertEquals(false, isScheduledForRetry(project));
+    }
+
     public void testWithBuildWrapper() throws Exception {
 
         FreeStyleProject project = createFreeStyleProject();
@@ -113,6 +134,83 @@ public class NaginatorListenerTest extends HudsonTestCase {
         assertEquals(true, isScheduledForRetry(project));
     }
 
+    public void testIdenticalFailuresStopRetrying() throws Exception {
+        FreeStyleProject project = createFreeStyleProject();
+        project.getBuildersList().add(new MyBuilder("foo", Result.FAILURE));
+        NaginatorPublisher nag = new NaginatorPublisher("foo", false, false, true, 10, new FixedDelay(0));
+        nag.setMaxIdenticalFailures(2);
+        project.getPublishersList().add(nag);
+
+        project.scheduleBuild2(0).get();
+        waitUntilNoActivity();
+
+        assertEquals(2, project.getLastBuild().getNumber());
+    }
+
+    public void testFailedTestsPassedToRetry() throws Exception {
+        FreeStyleProject project = createFreeStyleProject();
+        project.getBuildersList().add(new WriteTestReport());
+        project.getPublishersList().add(new JUnitResultArchiver("results.xml"));
+        NaginatorPublisher nag = new NaginatorPublisher("", true, false, false, 1, new FixedDelay(0));
+        nag.setRerunFailedTests(true);
+        project.getPublishersList().add(nag);
+
+        project.scheduleBuild2(0).get();
+        waitUntilNoActivity();
+
+        assertEquals(2, project.getLastBuild().getNumber());
+        assertNull(project.getBuildByNumber(1).getEnvironment(TaskListener.NULL).get(NaginatorAction.FAILED_TESTS_VARIABLE));
+        assertEquals("com.example.FooTest#testA",
+                project.getBuildByNumber(2).getEnvironment(TaskListener.NULL).get(NaginatorAction.FAILED_TESTS_VARIABLE));
+    }
+
+    public void testLearnedDelayLearnsActualWait() throws Exception {
+        FreeStyleProject project = createFreeStyleProject();
+        project.getBuildersList().add(new FailFirstAttempt());
+        LearnedDelay delay = new LearnedDelay(0, 16, 80);
+        project.getPublishersList().add(new NaginatorPublisher("", false, false, false, 1, delay));
+
+        project.scheduleBuild2(0).get();
+        waitUntilNoActivity();
+
+        // Asked to wait 0 seconds, the retry was held in the queue for a few more
+        FreeStyleBuild retry = project.getLastBuild();
+        assertEquals(2, retry.getNumber());
+        assertEquals(Result.SUCCESS, retry.getResult());
+        NaginatorAction action = retry.getAction(NaginatorAction.class);
+        assertEquals(Integer.valueOf(0), action.getDelay());
+        int waited = action.getWaited(retry);
+        assertTrue(waited >= HoldRetries.SECONDS);
+
+        LearnedDelay.Stats stats = jenkins.getDescriptorByType(LearnedDelay.DescriptorImpl.class).getModel()
+                .get(project.getFullName() + '#' + action.getFailureSignature());
+        int[] ladder = delay.getLadder();
+        assertEquals(0, stats.getPassed(0), 0);
+        assertEquals(1, stats.getPassed(LearnedDelay.stepFor(ladder, waited)), 0);
+    }
+
+    /**
+     * Holds retries in the queue for a while after they could have started.
+     */
+    @TestExtension("testLearnedDelayLearnsActualWait")
+    public static class HoldRetries extends QueueTaskDispatcher {
+        static final int SECONDS = 3;
+
+        @Override
+        public CauseOfBlockage canRun(Queue.Item item) {
+            if (item.getAction(NaginatorAction.class) != null
+                    && System.currentTimeMillis() - item.getInQueueSince() < SECONDS * 1000) {
+                return new CauseOfBlockage() {
+                    @Override
+                    public String getShortDescription() {
+                        return "held";
+                    }
+                };
+            }
+            return null;
+        }
+    }
+
     /**
      * A -> B
      *
@@ -165,6 +263,28 @@ public class NaginatorListenerTest extends HudsonTestCase {
         return project.getLastBuild().getNumber() > 1;
     }
 
+    private static final class FailFirstAttempt extends TestBuilder {
+        @Override
+        public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+            if (build.getAction(NaginatorAction.class) == null) {
+                build.setResult(Result.FAILURE);
+            }
+            return true;
+        }
+    }
+
+    private static final class WriteTestReport extends TestBuilder {
+        @Override
+        public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+            build.getWorkspace().child("results.xml").write(
+                    "<testsuite name='com.example.FooTest'>"
+                    + "<testcase classname='com.example.FooTest' name='testA'><failure>boom</failure></testcase>"
+                    + "<testcase classname='com.example.FooTest' name='testB'/>"
+                    + "</testsuite>", "UTF-8");
+            return true;
+        }
+    }
+
     private static final class FailTheBuild extends BuildWrapper {
         @Override
         public Environment setUp(AbstractBuild build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
@@ -0,0 +1,153 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+
+import org.jvnet.hudson.test.FailureBuilder;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import hudson.model.AbstractBuild;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.labels.LabelAtom;
+import hudson.model.queue.QueueTaskDispatcher;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+
+/**
+ * A test suite for {@link NaginatorQueueTaskDispatcher}.
+ */
+public class NaginatorQueueTaskDispatcherTest extends HudsonTestCase {
+
+    public void testRetryAvoidsFailedNode() throws Exception {
+        createOnlineSlave();
+        FreeStyleProject project = createFreeStyleProject();
+        project.getBuildersList().add(new FailureBuilder());
+        NaginatorPublisher nag = new NaginatorPublisher("", false, false, false, 1, new FixedDelay(0));
+        nag.setAvoidFailedNode(true);
+        project.getPublishersList().add(nag);
+
+        project.scheduleBuild2(0).get();
+        waitUntilNoActivity();
+
+        FreeStyleBuild retry = project.getLastBuild();
+        assertEquals(2, retry.getNumber());
+        assertFalse(retry.getBuiltOnStr().equals(project.getBuildByNumber(1).getBuiltOnStr()));
+    }
+
+    public void testRetryAvoidsUnhealthyNode() throws Exception {
+        jenkins.setNumExecutors(0);
+        Node failed = createOfflineSlave("failed");
+        Node unhealthy = createOfflineSlave("unhealthy");
+        Node healthy = createOfflineSlave("healthy");
+        for (int i = 0; i < 4; i++) {
+            NodeHealth.get().record("unhealthy", false);
+        }
+
+        FreeStyleProject project = createFreeStyleProject();
+        Queue.BuildableItem item = scheduleRetry(project, 0, "failed");
+        try {
+            assertTrue(getDispatcher().canTake(failed, item) instanceof NaginatorQueueTaskDispatcher.AvoidedNode);
+            assertTrue(getDispatcher().canTake(unhealthy, item) instanceof NaginatorQueueTaskDispatcher.AvoidedNode);
+            assertNull(getDispatcher().canTake(healthy, item));
+        } finally {
+            jenkins.getQueue().cancel(item);
+        }
+
+        // removed nodes are forgotten
+        jenkins.removeNode(unhealthy);
+        assertEquals(1, NodeHealth.get().getScore("unhealthy"), 0);
+    }
+
+    public void testOnlyAutomaticRetriesDeferred() throws Exception {
+        jenkins.setNumExecutors(0);
+        Node node = createOfflineSlave("busy");
+        FreeStyleProject fresh = createFreeStyleProject();
+        fresh.scheduleBuild2(0);
+        Queue.BuildableItem freshItem = waitUntilBuildable(fresh);
+        Queue.BuildableItem automatic = scheduleRetry(createFreeStyleProject(), 0, null);
+        Queue.BuildableItem manual = scheduleRetry(createFreeStyleProject(), null, null);
+        try {
+            // let the dispatcher see the fresh build
+            Thread.sleep(1100);
+            assertTrue(getDispatcher().canTake(node, automatic) instanceof NaginatorQueueTaskDispatcher.Deferred);
+            assertNull(getDispatcher().canTake(node, manual));
+            assertNull(getDispatcher().canTake(node, freshItem));
+        } finally {
+            jenkins.getQueue().cancel(freshItem);
+            jenkins.getQueue().cancel(automatic);
+            jenkins.getQueue().cancel(manual);
+        }
+    }
+
+    public void testRetryNotDeferredByBuildsWhichCannotRunHere() throws Exception {
+        // A fresh build waiting for a label no node has
+        FreeStyleProject stuck = createFreeStyleProject();
+        stuck.setAssignedLabel(new LabelAtom("nowhere"));
+        stuck.scheduleBuild2(0);
+
+        FreeStyleProject project = createFreeStyleProject();
+        project.getBuildersList().add(new FailureBuilder());
+        project.getPublishersList().add(new NaginatorPublisher("", false, false, false, 1, new FixedDelay(0)));
+        project.scheduleBuild2(0).get();
+
+        try {
+            for (int i = 0; i < 300 && (project.getLastBuild().getNumber() < 2 || project.getLastBuild().isBuilding()); i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(2, project.getLastBuild().getNumber());
+            assertFalse(project.getLastBuild().isBuilding());
+        } finally {
+            Queue.Item item = jenkins.getQueue().getItem(stuck);
+            if (item != null) {
+                jenkins.getQueue().cancel(item);
+            }
+        }
+    }
+
+    /**
+     * Adds a node which never comes online, so that items stay in the queue.
+     */
+    private Node createOfflineSlave(String name) throws Exception {
+        DumbSlave slave = new DumbSlave(name, "", createTmpDir().getPath(), "1", Node.Mode.NORMAL, "",
+                new JNLPLauncher(), RetentionStrategy.NOOP, Collections.<NodeProperty<?>>emptyList());
+        jenkins.addNode(slave);
+        return slave;
+    }
+
+    /**
+     * Schedules a retry of the project and waits for it to be buildable.
+     *
+     * @param delay the delay of the retry, or null for a manual retry.
+     */
+    private Queue.BuildableItem scheduleRetry(FreeStyleProject project, Integer delay, String failedNode) throws Exception {
+        NaginatorAction action = delay != null
+                ? new NaginatorAction(mock(AbstractBuild.class), delay, null)
+                : new NaginatorAction();
+        action.setFailedNode(failedNode);
+        project.scheduleBuild2(0, new NaginatorCause(mock(AbstractBuild.class)), action);
+        return waitUntilBuildable(project);
+    }
+
+    private Queue.BuildableItem waitUntilBuildable(FreeStyleProject project) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            Queue.Item item = jenkins.getQueue().getItem(project);
+            if (item instanceof Queue.BuildableItem) {
+                return (Queue.BuildableItem) item;
+            }
+            jenkins.getQueue().maintain();
+            Thread.sleep(100);
+        }
+        fail(project + " not buildable");
+        return null;
+    }
+
+    private NaginatorQueueTaskDispatcher getDispatcher() {
+        return jenkins.getExtensionList(QueueTaskDispatcher.class).get(NaginatorQueueTaskDispatcher.class);
+    }
+}
@@ -0,0 +1,65 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * A test suite for {@link NodeHealth}.
+ */
+public class NodeHealthTest {
+
+    @Test
+    public void testUnknownNodeIsHealthy() {
+        NodeHealth health = new NodeHealth();
+        assertEquals(1, health.getScore("slave1"), 0);
+        assertTrue(health.isHealthy("slave1"));
+    }
+
+    @Test
+    public void testRepeatedFailuresMakeNodeUnhealthy() {
+        NodeHealth health = new NodeHealth();
+        for (int i = 0; i < 3; i++) {
+            health.record("slave1", false, 0);
+        }
+        // 0.8^3 = 0.512
+        assertTrue(health.getScore("slave1", 0) >= NodeHealth.THRESHOLD);
+        health.record("slave1", false, 0);
+        assertTrue(health.getScore("slave1", 0) < NodeHealth.THRESHOLD);
+        assertTrue(health.isHealthy("slave2"));
+
+        // and recovers once retries pass again
+        for (int i = 0; i < 3; i++) {
+            health.record("slave1", true, 0);
+        }
+        assertTrue(health.getScore("slave1", 0) >= NodeHealth.THRESHOLD);
+    }
+
+    @Test
+    public void testScoreHealsOverTime() {
+        NodeHealth health = new NodeHealth();
+        health.record("slave1", false, 0);
+        assertEquals(0.8, health.getScore("slave1", 0), 0.0001);
+        assertEquals(0.9, health.getScore("slave1", NodeHealth.HALF_LIFE), 0.0001);
+        assertEquals(0.95, health.getScore("slave1", 2 * NodeHealth.HALF_LIFE), 0.0001);
+
+        // healed nodes are forgotten
+        health.record("slave2", true, 10 * NodeHealth.HALF_LIFE);
+        assertEquals(0, health.size());
+    }
+
+    @Test
+    public void testRetain() {
+        NodeHealth health = new NodeHealth();
+        health.record("slave1", false, 0);
+        health.record("slave2", false, 0);
+        health.retain(Collections.singleton("slave2"));
+        assertEquals(1, health.size());
+        assertEquals(1, health.getScore("slave1", 0), 0);
+        assertFalse(health.getScore("slave2", 0) == 1);
+    }
+}
@@ -0,0 +1,143 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.chikli.hudson.plugin.naginator.RetryJournal.Entry;
+import com.chikli.hudson.plugin.naginator.RetryJournal.Event;
+import com.chikli.hudson.plugin.naginator.RetryJournal.JobStats;
+
+/**
+ * A test suite for {@link RetryJournal}.
+ */
+public class RetryJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testEntryRoundTrip() {
+        Entry entry = Entry.parse(new Entry(1400000000000L, "folder/job", 42, Event.SCHEDULED, 2, 300, true, "FAILURE").toLine());
+        assertEquals(1400000000000L, entry.time);
+        assertEquals("folder/job", entry.job);
+        assertEquals(42, entry.build);
+        assertEquals(Event.SCHEDULED, entry.event);
+        assertEquals(2, entry.retry);
+        assertEquals(300, entry.delay);
+        assertEquals(Boolean.TRUE, entry.regexpMatched);
+        assertEquals("FAILURE", entry.result);
+
+        assertNull(Entry.parse(new Entry(0, "job", 1, Event.COMPLETED, 1, -1, null, "SUCCESS").toLine()).regexpMatched);
+        assertNull(Entry.parse("garbage"));
+        assertNull(Entry.parse("0\tjob\t1\tUNKNOWN\t1\t-1\t-\tSUCCESS"));
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        File dir = new File(tmp.getRoot(), "journal");
+        RetryJournal journal = new RetryJournal(dir);
+        journal.append(new Entry(0, "job", 1, Event.SCHEDULED, 1, 60, null, "FAILURE"));
+        journal.append(new Entry(1, "job", 2, Event.COMPLETED, 1, 60, null, "SUCCESS"));
+        File file = new File(dir, RetryJournal.FILE_NAME);
+        assertTrue(file.exists());
+        assertEquals(2, hudson.Util.loadFile(file).split("\n").length);
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        File dir = new File(tmp.getRoot(), "journal");
+        long now = System.currentTimeMillis();
+        long old = now - TimeUnit.DAYS.toMillis(30);
+        RetryJournal journal = new RetryJournal(dir);
+        journal.append(new Entry(old, "a", 1, Event.SCHEDULED, 1, 60, null, "FAILURE"));
+        journal.append(new Entry(now, "a", 2, Event.SCHEDULED, 1, 60, null, "FAILURE"));
+        journal.append(new Entry(now, "a", 3, Event.COMPLETED, 1, 60, null, "SUCCESS"));
+        journal.append(new Entry(now, "b", 1, Event.MAX_SCHEDULE, 3, -1, null, "FAILURE"));
+
+        // The index is read from the journal written so far
+        journal = new RetryJournal(dir);
+        Map<String, JobStats> stats = byJob(journal.countStats(7));
+        assertEquals(1, stats.size());
+        assertEquals(1, stats.get("a").scheduled);
+        assertEquals(1, stats.get("a").passed);
+        assertEquals(0, stats.get("a").failed);
+        assertEquals(2, byJob(journal.countStats(60)).get("a").scheduled);
+
+        // then kept up to date as entries are appended
+        journal.append(new Entry(now, "b", 2, Event.MANUAL, 1, 0, null, "FAILURE"));
+        journal.append(new Entry(now, "b", 3, Event.COMPLETED, 1, 0, null, "FAILURE"));
+        stats = byJob(journal.countStats(7));
+        assertEquals(1, stats.get("b").scheduled);
+        assertEquals(1, stats.get("b").failed);
+    }
+
+    @Test
+    public void testEntries() throws Exception {
+        long now = System.currentTimeMillis();
+        RetryJournal journal = new RetryJournal(new File(tmp.getRoot(), "journal"));
+        journal.append(new Entry(now - TimeUnit.DAYS.toMillis(30), "a", 1, Event.SCHEDULED, 1, 60, null, "FAILURE"));
+        for (int i = 2; i <= 5; i++) {
+            journal.append(new Entry(now, "a", i, Event.SCHEDULED, 1, 60, null, "FAILURE"));
+            journal.append(new Entry(now, "b", i, Event.SCHEDULED, 1, 60, null, "FAILURE"));
+        }
+
+        List<Entry> entries = journal.readEntries("a", 7, 3);
+        assertEquals(3, entries.size());
+        // the latest ones, oldest first
+        assertEquals(3, entries.get(0).build);
+        assertEquals(5, entries.get(2).build);
+        for (Entry e : entries) {
+            assertEquals("a", e.job);
+        }
+        assertEquals(5, journal.readEntries("a", 60, 100).size());
+        assertTrue(journal.readEntries("c", 7, 100).isEmpty());
+    }
+
+    @Test
+    public void testRotationPrunesIndex() throws Exception {
+        long now = System.currentTimeMillis();
+        File dir = new File(tmp.getRoot(), "journal");
+        // a file per entry
+        RetryJournal journal = new RetryJournal(dir, 1);
+        journal.append(new Entry(now, "a", 1, Event.SCHEDULED, 1, 60, null, "FAILURE"));
+        assertEquals(1, journal.countStats(7).size());
+        for (int i = 2; i <= RetryJournal.MAX_FILES + 2; i++) {
+            journal.append(new Entry(now, "a", i, Event.SCHEDULED, 1, 60, null, "FAILURE"));
+        }
+
+        // stats and entries agree on what is left
+        assertEquals(RetryJournal.MAX_FILES, byJob(journal.countStats(7)).get("a").scheduled);
+        List<Entry> entries = journal.readEntries("a", 7, 100);
+        assertEquals(RetryJournal.MAX_FILES, entries.size());
+        assertEquals(3, entries.get(0).build);
+        assertEquals(RetryJournal.MAX_FILES + 2, entries.get(entries.size() - 1).build);
+
+        // and so does a journal reading them afresh
+        journal = new RetryJournal(dir, 1);
+        assertEquals(RetryJournal.MAX_FILES, journal.readEntries("a", 7, 100).size());
+        assertEquals(RetryJournal.MAX_FILES, byJob(journal.countStats(7)).get("a").scheduled);
+
+        journal.append(new Entry(now, "b", 1, Event.SCHEDULED, 1, 60, null, "FAILURE"));
+        assertEquals(RetryJournal.MAX_FILES - 1, journal.readEntries("a", 7, 100).size());
+        assertEquals(1, journal.readEntries("b", 7, 100).size());
+    }
+
+    private static Map<String, JobStats> byJob(List<JobStats> stats) {
+        Map<String, JobStats> map = new HashMap<String, JobStats>();
+        for (JobStats s : stats) {
+            map.put(s.job, s);
+        }
+        return map;
+    }
+}
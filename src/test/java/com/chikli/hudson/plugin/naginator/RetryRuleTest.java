@@ -0,0 +1,60 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import hudson.model.Descriptor.FormException;
+import hudson.util.FormValidation;
+
+/**
+ * A test suite for {@link RetryRule}.
+ */
+public class RetryRuleTest {
+
+    @Test
+    public void testPatternCompiledOnce() {
+        RetryRule rule = new RetryRule(" timeout ", "Connection timed out");
+        assertEquals("timeout", rule.getId());
+        assertEquals("Connection timed out", rule.getPattern().pattern());
+        assertSame(rule.getPattern(), rule.getPattern());
+    }
+
+    @Test
+    public void testNoPattern() {
+        assertNull(new RetryRule("empty", "").getPattern());
+        assertNull(new RetryRule("invalid", "(unbalanced").getPattern());
+    }
+
+    @Test
+    public void testCheckRegexp() {
+        RetryRule.DescriptorImpl descriptor = new RetryRule.DescriptorImpl();
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckRegexp("timed out").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckRegexp("(unbalanced").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckRegexp("").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckRegexp(null).kind);
+    }
+
+    @Test
+    public void testCheckRules() throws Exception {
+        NaginatorPublisher.DescriptorImpl.checkRules(Arrays.asList(
+                new RetryRule("a", "timed out"), new RetryRule("b", "timed out")));
+        assertRejected(new RetryRule("a", "timed out"), new RetryRule(" a ", "refused"));
+        assertRejected(new RetryRule("a", ""));
+        assertRejected(new RetryRule(" ", "timed out"));
+    }
+
+    private static void assertRejected(RetryRule... rules) {
+        try {
+            NaginatorPublisher.DescriptorImpl.checkRules(Arrays.asList(rules));
+            fail("rules accepted");
+        } catch (FormException e) {
+            assertEquals("rules", e.getFormField());
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Descriptor;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.tasks.Publisher;
+import hudson.util.DescribableList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.mockito.exceptions.misusing.MissingMethodInvocationException;
+
+/**
+ * Replays a trace of failures through {@link NaginatorListener#decide} and a
+ * {@link ScheduleDelay} on a virtual clock, without Jenkins nor its queue,
+ * to compare retry policies before changing them for real.
+ *
+ * <p>
+ * Each {@link Incident} is a build which failed, and keeps failing until a given
+ * time has passed since it first ran. Builds wait in a FIFO queue for one of a
+ * fixed number of executors. {@link LearnedDelay} learns from the replayed
+ * retries with a model of its own.
+ *
+ * <p>
+ * Builds are stub-only mocks which do not record their invocations, and only
+ * the attempts of a same incident are chained through their previous build, so
+ * that memory does not grow with the length of the trace.
+ */
+public class RetrySimulator {
+
+    /**
+     * A failing build and how it would behave when retried.
+     */
+    public static class Incident {
+        final String job;
+        final long submitted;
+        final int duration;
+        final String failure;
+        final long clearsAfter;
+
+        /**
+         * @param job name of the failing job.
+         * @param submitted when the build was submitted, in seconds.
+         * @param duration how long each attempt runs, in seconds.
+         * @param failure the end of its log, from which the failure signature is computed.
+         * @param clearsAfter seconds after the first attempt started from which attempts
+         *        pass; {@link Long#MAX_VALUE} for a failure that never clears.
+         */
+        public Incident(String job, long submitted, int duration, String failure, long clearsAfter) {
+            this.job = job;
+            this.submitted = submitted;
+            this.duration = duration;
+            this.failure = failure;
+            this.clearsAfter = clearsAfter;
+        }
+    }
+
+    /**
+     * What replaying a trace cost.
+     */
+    public static class Report {
+        /**
+         * Time executors spent on the incidents, retries included.
+         */
+        public double executorMinutes;
+
+        /**
+         * Largest number of builds waiting for an executor at once.
+         */
+        public int peakQueueDepth;
+
+        /**
+         * Seconds from submission to the first passing attempt, for each incident which passed.
+         */
+        public final List<Long> timesToSuccess = new ArrayList<Long>();
+
+        /**
+         * Incidents given up on.
+         */
+        public int unresolved;
+
+        public double getMeanTimeToSuccess() {
+            if (timesToSuccess.isEmpty()) return 0;
+            long sum = 0;
+            for (long t : timesToSuccess) sum += t;
+            return (double) sum / timesToSuccess.size();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("executor-minutes=%.1f, mean time to success=%.0fs, passed=%d, unresolved=%d, peak queue depth=%d",
+                    executorMinutes, getMeanTimeToSuccess(), timesToSuccess.size(), unresolved, peakQueueDepth);
+        }
+    }
+
+    private static class Attempt {
+        final Incident incident;
+        final NaginatorAction action;
+        /**
+         * The attempt this one retries, null for the first one.
+         */
+        final AbstractBuild<?, ?> previous;
+        long firstStarted;
+        long started;
+        boolean passed;
+        AbstractBuild<?, ?> build;
+
+        Attempt(Incident incident, NaginatorAction action, AbstractBuild<?, ?> previous) {
+            this.incident = incident;
+            this.action = action;
+            this.previous = previous;
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long seq;
+        final Attempt attempt;
+        final boolean finish;
+
+        Event(long time, long seq, Attempt attempt, boolean finish) {
+            this.time = time;
+            this.seq = seq;
+            this.attempt = attempt;
+            this.finish = finish;
+        }
+
+        public int compareTo(Event o) {
+            if (time != o.time) return time < o.time ? -1 : 1;
+            return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+        }
+    }
+
+    private final NaginatorPublisher naginator;
+
+    private final int executors;
+
+    private final NaginatorListener listener = new NaginatorListener();
+
+    private final Map<String, AbstractProject<?, ?>> projects = new HashMap<String, AbstractProject<?, ?>>();
+
+    private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+
+    private final LinkedList<Attempt> waiting = new LinkedList<Attempt>();
+
+    private long seq;
+
+    private int busy;
+
+    private Report report;
+
+    /**
+     * @param naginator the retry settings of every job; only failures are replayed,
+     *        so it must not check for a regular expression.
+     * @param executors number of executors shared by all jobs.
+     */
+    public RetrySimulator(NaginatorPublisher naginator, int executors) {
+        this.naginator = naginator;
+        this.executors = executors;
+        if (naginator.isCheckRegexp()) {
+            throw new IllegalArgumentException("build logs are not replayed, regular expressions cannot be checked");
+        }
+        if (naginator.getDelay() instanceof LearnedDelay && !(naginator.getDelay() instanceof OfflineLearnedDelay)) {
+            throw new IllegalArgumentException("use learnedDelay() to replay a LearnedDelay");
+        }
+    }
+
+    /**
+     * Returns a {@link LearnedDelay} which learns in memory instead of in Jenkins.
+     */
+    public static LearnedDelay learnedDelay(int minDelay, int maxDelay, int successRate) {
+        return new OfflineLearnedDelay(minDelay, maxDelay, successRate, new LearnedDelay.Model());
+    }
+
+    private static class OfflineLearnedDelay extends LearnedDelay {
+        private final transient Model model;
+
+        OfflineLearnedDelay(int minDelay, int maxDelay, int successRate, Model model) {
+            super(minDelay, maxDelay, successRate);
+            this.model = model;
+        }
+
+        @Override
+        Model getModel() {
+            return model;
+        }
+
+        @Override
+        void saveModel() {
+        }
+    }
+
+    /**
+     * Reads a trace as lines of <tt>job,submitted,duration,clearsAfter,failure</tt>,
+     * where a negative <tt>clearsAfter</tt> stands for a failure that never clears.
+     * Blank lines and lines starting with <tt>#</tt> are skipped.
+     */
+    public static List<Incident> parse(Reader trace) throws IOException {
+        List<Incident> incidents = new ArrayList<Incident>();
+        BufferedReader reader = new BufferedReader(trace);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) continue;
+            String[] fields = line.split(",", 5);
+            long clearsAfter = Long.parseLong(fields[3].trim());
+            incidents.add(new Incident(fields[0].trim(), Long.parseLong(fields[1].trim()),
+                    Integer.parseInt(fields[2].trim()), fields[4].trim(),
+                    clearsAfter < 0 ? Long.MAX_VALUE : clearsAfter));
+        }
+        return incidents;
+    }
+
+    public Report run(List<Incident> incidents) throws Exception {
+        report = new Report();
+        for (Incident incident : incidents) {
+            Attempt a = new Attempt(incident, null, null);
+            events.add(new Event(incident.submitted, seq++, a, false));
+        }
+
+        while (!events.isEmpty()) {
+            Event e = events.poll();
+            if (e.finish) {
+                busy--;
+                finish(e.attempt, e.time);
+            } else {
+                waiting.add(e.attempt);
+            }
+            while (busy < executors && !waiting.isEmpty()) {
+                start(waiting.removeFirst(), e.time);
+            }
+            report.peakQueueDepth = Math.max(report.peakQueueDepth, waiting.size());
+        }
+        return report;
+    }
+
+    private void start(Attempt a, long now) throws Exception {
+        busy++;
+        a.started = now;
+        if (a.action == null) {
+            a.firstStarted = now;
+        }
+        a.passed = a.started - a.firstStarted >= a.incident.clearsAfter;
+        a.build = createBuild(a);
+        report.executorMinutes += a.incident.duration / 60.0;
+        events.add(new Event(now + a.incident.duration, seq++, a, true));
+    }
+
+    private void finish(Attempt a, long now) throws Exception {
+        if (a.action != null) {
+            naginator.getDelay().onRetryCompleted(a.build, a.action, a.passed);
+        }
+        if (a.passed) {
+            report.timesToSuccess.add(now - a.incident.submitted);
+            return;
+        }
+
+        NaginatorListener.Decision decision = listener.decide(a.build, naginator, TaskListener.NULL);
+        if (decision == null || decision.action == null) {
+            report.unresolved++;
+            return;
+        }
+        Attempt retry = new Attempt(a.incident, decision.action, a.build);
+        retry.firstStarted = a.firstStarted;
+        events.add(new Event(now + decision.delay, seq++, retry, false));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private AbstractBuild<?, ?> createBuild(Attempt a) throws Exception {
+        AbstractBuild build = mock(AbstractBuild.class, withSettings().stubOnly());
+        when(build.getPreviousBuild()).thenReturn(a.previous);
+        when(build.getAction(NaginatorAction.class)).thenReturn(a.action);
+        when(build.getResult()).thenReturn(a.passed ? Result.SUCCESS : Result.FAILURE);
+        when(build.getLog(anyInt())).thenReturn(Collections.singletonList(a.incident.failure));
+        setProject(build, getProject(a.incident.job));
+        setTimes(build, a.started * 1000, a.incident.duration * 1000L);
+        return build;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private AbstractProject<?, ?> getProject(String name) {
+        AbstractProject project = projects.get(name);
+        if (project == null) {
+            project = mock(AbstractProject.class, withSettings().stubOnly());
+            DescribableList<Publisher, Descriptor<Publisher>> publishers = mock(DescribableList.class, withSettings().stubOnly());
+            when(publishers.get(NaginatorPublisher.class)).thenReturn(naginator);
+            when(project.getPublishersList()).thenReturn(publishers);
+            when(project.getFullName()).thenReturn(name);
+            projects.put(name, project);
+        }
+        return project;
+    }
+
+    /**
+     * {@link AbstractBuild#getProject()} is final: stub what it delegates to where
+     * possible, and set the field it ends up returning otherwise.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void setProject(AbstractBuild build, AbstractProject project) throws Exception {
+        for (Class<?> c = AbstractBuild.class; c != null; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (f.getName().equals("project")) {
+                    f.setAccessible(true);
+                    f.set(build, project);
+                }
+            }
+        }
+        try {
+            when(build.getParent()).thenReturn(project);
+        } catch (MissingMethodInvocationException e) {
+            // final there too, the field is used
+        }
+    }
+
+    /**
+     * Puts the build on the virtual clock, through its fields for the getters which are final.
+     */
+    @SuppressWarnings("rawtypes")
+    private static void setTimes(AbstractBuild build, long start, long duration) throws Exception {
+        for (Class<?> c = AbstractBuild.class; c != null; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (f.getName().equals("timestamp") || f.getName().equals("startTime")) {
+                    f.setAccessible(true);
+                    f.setLong(build, start);
+                } else if (f.getName().equals("duration")) {
+                    f.setAccessible(true);
+                    f.setLong(build, duration);
+                }
+            }
+        }
+        try {
+            when(build.getStartTimeInMillis()).thenReturn(start);
+        } catch (MissingMethodInvocationException e) {
+            // final, the fields are used
+        }
+        try {
+            when(build.getDuration()).thenReturn(duration);
+        } catch (MissingMethodInvocationException e) {
+            // final, the fields are used
+        }
+    }
+}
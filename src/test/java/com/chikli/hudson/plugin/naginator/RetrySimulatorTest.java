@@ -0,0 +1,83 @@
+package com.chikli.hudson.plugin.naginator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.chikli.hudson.plugin.naginator.RetrySimulator.Incident;
+import com.chikli.hudson.plugin.naginator.RetrySimulator.Report;
+
+/**
+ * A test suite for {@link RetrySimulator}.
+ */
+public class RetrySimulatorTest {
+
+    private static NaginatorPublisher naginator(int maxSchedule, int maxIdenticalFailures, ScheduleDelay delay) {
+        NaginatorPublisher naginator = new NaginatorPublisher("", false, false, false, maxSchedule, delay);
+        naginator.setMaxIdenticalFailures(maxIdenticalFailures);
+        return naginator;
+    }
+
+    @Test
+    public void testDeterministicFailure() throws Exception {
+        List<Incident> trace = Collections.singletonList(
+                new Incident("job", 0, 600, "Compilation failure", Long.MAX_VALUE));
+
+        Report report = new RetrySimulator(naginator(3, 0, new FixedDelay(60)), 1).run(trace);
+        assertEquals(40, report.executorMinutes, 0.001);
+        assertEquals(1, report.unresolved);
+        assertTrue(report.timesToSuccess.isEmpty());
+
+        // Identical failures stop the retries early
+        report = new RetrySimulator(naginator(3, 2, new FixedDelay(60)), 1).run(trace);
+        assertEquals(20, report.executorMinutes, 0.001);
+        assertEquals(1, report.unresolved);
+    }
+
+    @Test
+    public void testTransientFailure() throws Exception {
+        List<Incident> trace = Collections.singletonList(
+                new Incident("job", 0, 60, "Connection refused", 120));
+
+        Report immediate = new RetrySimulator(naginator(10, 0, new FixedDelay(0)), 1).run(trace);
+        assertEquals(3, immediate.executorMinutes, 0.001);
+        assertEquals(Arrays.asList(180L), immediate.timesToSuccess);
+
+        Report delayed = new RetrySimulator(naginator(10, 0, new FixedDelay(60)), 1).run(trace);
+        assertEquals(2, delayed.executorMinutes, 0.001);
+        assertEquals(Arrays.asList(180L), delayed.timesToSuccess);
+    }
+
+    @Test
+    public void testPeakQueueDepth() throws Exception {
+        List<Incident> trace = Arrays.asList(
+                new Incident("a", 0, 60, "Connection refused", 0),
+                new Incident("b", 0, 60, "Connection refused", 0),
+                new Incident("c", 0, 60, "Connection refused", 0));
+        Report report = new RetrySimulator(naginator(10, 0, new FixedDelay(0)), 1).run(trace);
+        assertEquals(2, report.peakQueueDepth);
+        assertEquals(Arrays.asList(60L, 120L, 180L), report.timesToSuccess);
+    }
+
+    @Test
+    public void testLearnedDelayReplay() throws Exception {
+        List<Incident> trace = RetrySimulator.parse(new StringReader(
+                "# job,submitted,duration,clearsAfter,failure\n"
+                + "job,0,60,200,Connection refused\n"
+                + "job,10000,60,200,Connection refused\n"
+                + "\n"
+                + "job,20000,60,-1,Compilation failure\n"));
+        assertEquals(3, trace.size());
+        assertEquals(Long.MAX_VALUE, trace.get(2).clearsAfter);
+
+        Report report = new RetrySimulator(naginator(5, 0, RetrySimulator.learnedDelay(10, 1000, 80)), 1).run(trace);
+        assertEquals(2, report.timesToSuccess.size());
+        assertEquals(1, report.unresolved);
+    }
+}